@@ -0,0 +1,26 @@
+#!/bin/sh
+# Builds build/jlox.jar and a class data sharing archive from a training run
+# over bench/training.lox. On JDKs with an AOT cache (JDK 24+) it also creates
+# build/jlox.aot, which bin/jlox prefers over the AppCDS archive.
+set -e
+cd "$(dirname "$0")/.."
+
+JAVA="${JAVA_HOME:+$JAVA_HOME/bin/}java"
+JAVAC="${JAVA_HOME:+$JAVA_HOME/bin/}javac"
+JAR="${JAVA_HOME:+$JAVA_HOME/bin/}jar"
+
+rm -rf build
+mkdir -p build/classes
+
+# Inline string concatenation avoids bootstrapping StringConcatFactory at runtime.
+"$JAVAC" -XDstringConcat=inline -d build/classes src/lox/*.java
+"$JAR" --create --file build/jlox.jar --main-class lox.Lox -C build/classes .
+
+"$JAVA" -XX:ArchiveClassesAtExit=build/jlox.jsa -jar build/jlox.jar bench/training.lox > /dev/null
+
+if "$JAVA" -XX:AOTMode=off -version > /dev/null 2>&1; then
+    "$JAVA" -XX:AOTMode=record -XX:AOTConfiguration=build/jlox.aotconf \
+        -jar build/jlox.jar bench/training.lox > /dev/null
+    "$JAVA" -XX:AOTMode=create -XX:AOTConfiguration=build/jlox.aotconf \
+        -XX:AOTCache=build/jlox.aot -jar build/jlox.jar
+fi
@@ -0,0 +1,27 @@
+#!/bin/sh
+# Compares wall-clock startup of a default JVM launch against bin/jlox.
+# Usage: bin/startup-bench.sh [script] [runs]
+set -e
+cd "$(dirname "$0")/.."
+
+SCRIPT="${1:-bench/hello.lox}"
+RUNS="${2:-20}"
+JAVA="${JAVA_HOME:+$JAVA_HOME/bin/}java"
+
+[ -f build/jlox.jar ] || bin/build-cds.sh
+
+time_runs()
+{
+    start=$(date +%s%N)
+    i=0
+    while [ $i -lt "$RUNS" ]; do
+        "$@" > /dev/null
+        i=$((i + 1))
+    done
+    end=$(date +%s%N)
+    echo $(( (end - start) / RUNS / 1000000 ))
+}
+
+echo "default JVM:   $(time_runs "$JAVA" -Xshare:off -jar build/jlox.jar "$SCRIPT") ms/run"
+echo "default CDS:   $(time_runs "$JAVA" -jar build/jlox.jar "$SCRIPT") ms/run"
+echo "bin/jlox:      $(time_runs bin/jlox "$SCRIPT") ms/run"
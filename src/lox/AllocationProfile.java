@@ -0,0 +1,170 @@
+package lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+* Counts the Lox values a script allocates, by source line and the node that made them,
+* for --alloc-profile.
+* ProfilingInterpreter records each allocation as it happens. The report goes to a file
+* every INTERVAL_MILLIS while the script runs and once more at exit, biggest sites first.
+* Bytes are estimates for a 64-bit JVM with compressed references; strings are assumed
+* to be Latin-1, and arrays include their off-heap storage.
+* */
+class AllocationProfile
+{
+    private static final long INTERVAL_MILLIS = 5000;
+
+    // node is the operator, native or statement that allocated, type what it made
+    private record Site(int line, String node, String type) {}
+
+    private static class Tally
+    {
+        final LongAdder count = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+    }
+
+    private final Map<Site, Tally> sites = new ConcurrentHashMap<>();
+    private final Path file;
+
+    AllocationProfile(Path file)
+    {
+        this.file = file;
+    }
+
+    // Writes the report periodically from a daemon thread, and at exit from a shutdown hook
+    void start()
+    {
+        Thread writer = new Thread(() -> {
+            try
+            {
+                while(true)
+                {
+                    Thread.sleep(INTERVAL_MILLIS);
+                    write();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }, "lox-alloc-profile");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::write));
+    }
+
+    void record(int line, String node, String type, long bytes)
+    {
+        Tally tally = sites.computeIfAbsent(new Site(line, node, type), site -> new Tally());
+        tally.count.increment();
+        tally.bytes.add(bytes);
+    }
+
+    // Records value unless it needed no allocation
+    void recordValue(int line, String node, Object value)
+    {
+        long bytes = estimate(value);
+        if(bytes > 0)
+        {
+            record(line, node, typeName(value), bytes);
+        }
+    }
+
+    // 0 for values that were not allocated: nil, booleans and cached small Longs
+    static long estimate(Object value)
+    {
+        if(value == null || value instanceof Boolean)
+        {
+            return 0;
+        }
+        if(value instanceof Long number)
+        {
+            return number >= -128 && number <= 127 ? 0 : 16;
+        }
+        if(value instanceof Double)
+        {
+            return 16;
+        }
+        if(value instanceof String text)
+        {
+            return 24 + align(16 + text.length());
+        }
+        if(value instanceof LoxList)
+        {
+            return 40;
+        }
+        if(value instanceof LoxMap)
+        {
+            return 256;
+        }
+        if(value instanceof LoxArray array)
+        {
+            return 144 + (long)array.length() * array.kind().bytes;
+        }
+        return 64;
+    }
+
+    private static long align(long bytes)
+    {
+        return (bytes + 7) & ~7L;
+    }
+
+    private static String typeName(Object value)
+    {
+        if(Numbers.isNumber(value))
+        {
+            return "number";
+        }
+        if(value instanceof String)
+        {
+            return "string";
+        }
+        if(value instanceof LoxArray array)
+        {
+            return array.kind().typeName;
+        }
+        return value.getClass().getSimpleName();
+    }
+
+    synchronized void write()
+    {
+        try(PrintStream out = new PrintStream(Files.newOutputStream(file), false, StandardCharsets.UTF_8))
+        {
+            report(out);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Could not write allocation profile " + file + ": " + e.getMessage());
+        }
+    }
+
+    void report(PrintStream out)
+    {
+        List<Map.Entry<Site, Tally>> entries = new ArrayList<>(sites.entrySet());
+        entries.sort(Comparator.comparingLong((Map.Entry<Site, Tally> entry) -> entry.getValue().bytes.sum()).reversed());
+
+        long totalCount = 0;
+        long totalBytes = 0;
+        out.printf("%14s %12s %6s  %-16s %s%n", "bytes", "count", "line", "node", "value");
+        for(Map.Entry<Site, Tally> entry : entries)
+        {
+            long count = entry.getValue().count.sum();
+            long bytes = entry.getValue().bytes.sum();
+            Site site = entry.getKey();
+            out.printf("%14d %12d %6d  %-16s %s%n", bytes, count, site.line(), site.node(), site.type());
+            totalCount += count;
+            totalBytes += bytes;
+        }
+        out.printf("%14d %12d %6s  %s%n", totalBytes, totalCount, "", "total");
+    }
+}
@@ -47,6 +47,36 @@ class AstPrinter implements Expr.Visitor<String>
        return parenthesize("if-else", expr.elseBranch);
     }
 
+    @Override
+    public String visitVariableExpr(Expr.Variable expr)
+    {
+        return expr.name.lexeme;
+    }
+
+    @Override
+    public String visitCallExpr(Expr.Call expr)
+    {
+        Expr[] parts = new Expr[expr.arguments.size() + 1];
+        parts[0] = expr.callee;
+        for(int i = 0; i < expr.arguments.size(); i++)
+        {
+            parts[i + 1] = expr.arguments.get(i);
+        }
+        return parenthesize("call", parts);
+    }
+
+
+    @Override
+    public String visitAssignExpr(Expr.Assign expr)
+    {
+        return parenthesize("= " + expr.name.lexeme, expr.value);
+    }
+
+    @Override
+    public String visitLogicalExpr(Expr.Logical expr)
+    {
+        return parenthesize(expr.operator.lexeme, expr.left, expr.right);
+    }
 
     private String parenthesize(String name, Expr... exprs)
     {
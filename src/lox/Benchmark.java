@@ -0,0 +1,361 @@
+package lox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+* Micro benchmarks for the interpreter's phases.
+* Usage: java -cp <classes> lox.Benchmark <name> [iterations]
+* */
+class Benchmark
+{
+    // Keeps results live so the JIT cannot drop the measured work
+    private static double blackhole;
+
+    public static void main(String[] args)
+    {
+        String name = args.length > 0 ? args[0] : "parse";
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        switch (name)
+        {
+            case "parse":
+                parse(iterations);
+                break;
+            case "dispatch":
+                dispatch(iterations);
+                break;
+            case "budget":
+                budget(iterations);
+                break;
+            case "list":
+                list(iterations);
+                break;
+            case "map":
+                map(iterations);
+                break;
+            case "trace":
+                trace(iterations);
+                break;
+            case "flat":
+                flat(iterations);
+                break;
+            case "strings":
+                strings(iterations);
+                break;
+            case "incremental":
+                incremental(iterations);
+                break;
+            case "lex":
+                lex(iterations);
+                break;
+            default:
+                System.err.println("Unknown benchmark: " + name);
+                System.exit(64);
+        }
+    }
+
+    // Parse throughput over an expression-heavy generated script
+    private static void parse(int iterations)
+    {
+        StringBuilder source = new StringBuilder();
+        for(int i = 0; i < 2000; i++)
+        {
+            source.append("var v").append(i).append(" = (").append(i)
+                  .append(" + 2) * 3 - -4 / 5 >= 6 == !false ? \"s\" + \"t\" : nil;\n");
+            source.append("print v").append(i).append(" != 1 < 2;\n");
+        }
+
+        Scanner scanner = new Scanner(source.toString());
+        List<Token> tokens = scanner.scanTokens();
+        report("parse", iterations, tokens.size(), "tokens", () -> new Parser(scanner, true).parse());
+    }
+
+    // Visitor dispatch in Interpreter against the pattern-matching switch in SwitchInterpreter
+    private static void dispatch(int iterations)
+    {
+        List<Statement> statements = Lox.parse(callHeavyScript());
+        List<StmtNode> nodes = StmtNode.ofAll(statements);
+        PrintStream sink = new PrintStream(OutputStream.nullOutputStream());
+
+        report("visitor", iterations, statements.size(), "statements",
+                () -> new Interpreter(sink).interpret(statements));
+        report("switch", iterations, nodes.size(), "statements",
+                () -> new SwitchInterpreter(sink).interpret(nodes));
+    }
+
+    // Loop and call heavy script with no limits set, then with a step budget and deadline that are never reached
+    private static void budget(int iterations)
+    {
+        List<Statement> statements = Lox.parse(loopHeavyScript());
+        PrintStream sink = new PrintStream(OutputStream.nullOutputStream());
+
+        report("unlimited", iterations, 120_000, "loop iterations", () -> {
+            Interpreter interpreter = new Interpreter(sink);
+            interpreter.interpret(statements);
+        });
+        report("metered", iterations, 120_000, "loop iterations", () -> {
+            Interpreter interpreter = new Interpreter(sink);
+            interpreter.setBudget(new Budget(Long.MAX_VALUE / 2, 60_000));
+            interpreter.interpret(statements);
+        });
+    }
+
+    // Filling and reading back a numeric LoxList against a list of boxed numbers
+    private static void list(int iterations)
+    {
+        int size = 1_000_000;
+
+        report("strategy", iterations, size, "elements", () -> {
+            LoxList list = new LoxList();
+            for(int i = 0; i < size; i++)
+            {
+                list.append(i * 0.5);
+            }
+            double sum = 0;
+            for(int i = 0; i < size; i++)
+            {
+                sum += (double)list.get(i);
+            }
+            blackhole += sum;
+        });
+        report("boxed", iterations, size, "elements", () -> {
+            List<Object> list = new ArrayList<>();
+            for(int i = 0; i < size; i++)
+            {
+                list.add(i * 0.5);
+            }
+            double sum = 0;
+            for(int i = 0; i < size; i++)
+            {
+                sum += (double)list.get(i);
+            }
+            blackhole += sum;
+        });
+    }
+
+    // Counting occurrences of 4096 string keys and 4096 number keys, as an aggregation script would
+    private static void map(int iterations)
+    {
+        int lookups = 1_000_000;
+        Object[] keys = new Object[8192];
+        for(int i = 0; i < 4096; i++)
+        {
+            keys[2 * i] = "tag" + i;
+            keys[2 * i + 1] = (long)i * 7919;
+        }
+
+        report("open addressing", iterations, lookups, "updates", () -> {
+            LoxMap counts = new LoxMap();
+            for(int i = 0; i < lookups; i++)
+            {
+                Object key = keys[(i * 31) & 8191];
+                Object count = counts.get(key);
+                counts.put(key, count == null ? 1L : Numbers.add(count, 1L));
+            }
+            blackhole += counts.size();
+        });
+        report("java.util.HashMap", iterations, lookups, "updates", () -> {
+            Map<Object, Object> counts = new HashMap<>();
+            for(int i = 0; i < lookups; i++)
+            {
+                Object key = keys[(i * 31) & 8191];
+                Object count = counts.get(key);
+                counts.put(key, count == null ? 1L : Numbers.add(count, 1L));
+            }
+            blackhole += counts.size();
+        });
+    }
+
+    // A numeric nested loop run by the tracing tier, then by the tree walker alone
+    private static void trace(int iterations)
+    {
+        String source = "var total = 0;\n"
+                      + "var i = 0;\n"
+                      + "while (i < 1000) {\n"
+                      + "  var j = 0;\n"
+                      + "  while (j < 100) { total = total + (i * j) / 2 - j; j = j + 1; }\n"
+                      + "  i = i + 1;\n"
+                      + "}\n"
+                      + "print total;\n";
+        List<Statement> statements = Lox.parse(source);
+        PrintStream sink = new PrintStream(OutputStream.nullOutputStream());
+
+        report("traced", iterations, 100_000, "loop iterations",
+                () -> new Interpreter(sink).interpret(statements));
+
+        LoopTrace.enabled = false;
+        report("tree walker", iterations, 100_000, "loop iterations",
+                () -> new Interpreter(sink).interpret(statements));
+        LoopTrace.enabled = true;
+    }
+
+    // Heap kept by a large generated script as a tree and as a FlatAst, then run time of both forms
+    private static void flat(int iterations)
+    {
+        int count = 20_000;
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < count; i++)
+        {
+            builder.append("var v").append(i % 100).append(" = (").append(i % 10)
+                   .append(" + 2) * 3 - -4 / 5 >= 6 == !false;\n");
+            builder.append("print v").append(i % 100).append(" != (v").append((i + 1) % 100).append(" or 1 < 2);\n");
+        }
+        String source = builder.toString();
+
+        long base = usedAfterGc();
+        List<Statement> statements = Lox.parse(source);
+        long tree = usedAfterGc() - base;
+        FlatAst program = FlatAst.encode(statements);
+        statements = null;
+        long encoded = usedAfterGc() - base;
+        System.out.printf("tree: %d bytes/statement%nflat: %d bytes/statement (%d ints)%n",
+                tree / (2 * count), encoded / (2 * count), program.size());
+
+        List<Statement> calls = Lox.parse(callHeavyScript());
+        FlatAst encodedCalls = FlatAst.encode(calls);
+        PrintStream sink = new PrintStream(OutputStream.nullOutputStream());
+        report("visitor", iterations, calls.size(), "statements",
+                () -> new Interpreter(sink).interpret(calls));
+        report("flat", iterations, calls.size(), "statements",
+                () -> new FlatInterpreter(sink).interpret(encodedCalls));
+    }
+
+    // Comparing equal tag strings with isEqual when they share one interned instance, and when one is a copy
+    private static void strings(int iterations)
+    {
+        int comparisons = 1_000_000;
+        StringTable table = new StringTable();
+        String[] interned = new String[64];
+        String[] copies = new String[64];
+        for(int i = 0; i < interned.length; i++)
+        {
+            interned[i] = table.intern("request.handler.completed.status.tag" + i);
+            copies[i] = new String(interned[i]);
+        }
+
+        report("interned", iterations, comparisons, "comparisons", () -> {
+            int matches = 0;
+            for(int i = 0; i < comparisons; i++)
+            {
+                matches += Interpreter.isEqual(interned[i & 63], interned[i & 63]) ? 1 : 0;
+            }
+            blackhole += matches;
+        });
+        report("copied", iterations, comparisons, "comparisons", () -> {
+            int matches = 0;
+            for(int i = 0; i < comparisons; i++)
+            {
+                matches += Interpreter.isEqual(interned[i & 63], copies[i & 63]) ? 1 : 0;
+            }
+            blackhole += matches;
+        });
+    }
+
+    // Scanning throughput over generated scripts that are mostly comments and mostly string literals
+    private static void lex(int iterations)
+    {
+        StringBuilder comments = new StringBuilder();
+        StringBuilder strings = new StringBuilder();
+        String sentence = "the total is kept as a number so that the result prints without rounding, ";
+        for(int i = 0; i < 2000; i++)
+        {
+            comments.append("// Adds the next term of the series to the running total; ").append(sentence).append("\n")
+                    .append("/* ").append(sentence).append("\n   ").append(sentence).append("\n   ")
+                    .append(sentence).append("\n   callers that need a string convert it themselves. */\n")
+                    .append("        total = total + ").append(i).append(";\n");
+            strings.append("print \"").append(sentence).append(sentence).append(i).append("\";\n")
+                   .append("var s").append(i).append(" = \"").append(sentence).append("\n").append(sentence)
+                   .append("\n").append(sentence).append("\";\n");
+        }
+
+        String commented = comments.toString();
+        String quoted = strings.toString();
+        report("comments", iterations, commented.length(), "chars", () -> blackhole += new Scanner(commented).scanTokens().size());
+        report("strings", iterations, quoted.length(), "chars", () -> blackhole += new Scanner(quoted).scanTokens().size());
+    }
+
+    // One-character edits in the middle of a 50,000 line script, reparsed by LoxDocument against from scratch
+    private static void incremental(int iterations)
+    {
+        StringBuilder source = new StringBuilder();
+        for(int i = 0; i < 10_000; i++)
+        {
+            source.append("fun f").append(i).append("(a, b) {\n")
+                  .append("  var c = a * ").append(i).append(" + b;\n")
+                  .append("  if (c > 10) print c; else print \"small\";\n")
+                  .append("  return c - 1;\n")
+                  .append("}\n");
+        }
+
+        LoxDocument document = new LoxDocument(source.toString());
+        int offset = document.text().indexOf("a * 5000") + 2;
+        int[] edits = {0};
+        report("incremental", iterations, 50_000, "lines", () -> {
+            document.edit(offset, 1, (edits[0]++ & 1) == 0 ? "+" : "*");
+            blackhole += document.statements().size();
+        });
+        report("full", iterations, 50_000, "lines", () -> {
+            blackhole += new LoxDocument(document.text()).statements().size();
+        });
+    }
+
+    private static long usedAfterGc()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 4; i++)
+        {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    static String loopHeavyScript()
+    {
+        return "fun step(x) { return x * 3 + 1; }\n"
+             + "var total = 0;\n"
+             + "for (var i = 0; i < 20000; i = i + 1) {\n"
+             + "  var j = 0;\n"
+             + "  while (j < 5) { total = total + step(j) - i / 2; j = j + 1; }\n"
+             + "}\n"
+             + "print total;\n";
+    }
+
+    static String callHeavyScript()
+    {
+        StringBuilder source = new StringBuilder();
+        source.append("fun mix(a, b) { var c = a * b + (a - b) / 2; return c * c - a + b > 10 == true; }\n");
+        source.append("fun twice(f, x) { return f(x, x + 1) == f(x + 1, x); }\n");
+        for(int i = 0; i < 2000; i++)
+        {
+            source.append("var r").append(i).append(" = mix(").append(i).append(", 3) != twice(mix, ")
+                  .append(i % 7).append(");\n");
+            source.append("print -").append(i).append(" * 2 >= 1 == \"a\" + \"b\" != \"ab\";\n");
+        }
+        return source.toString();
+    }
+
+    private static void report(String name, int iterations, long units, String unit, Runnable body)
+    {
+        // Warm up so the JIT has compiled the measured code
+        for(int i = 0; i < iterations; i++)
+        {
+            body.run();
+        }
+
+        long start = System.nanoTime();
+        for(int i = 0; i < iterations; i++)
+        {
+            body.run();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        double seconds = elapsed / 1e9;
+        System.out.printf("%s: %.2f ms/op, %.1f M %s/s%n",
+                name, elapsed / 1e6 / iterations, units * iterations / seconds / 1e6, unit);
+    }
+}
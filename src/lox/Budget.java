@@ -0,0 +1,102 @@
+package lox;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+* Step budget and wall-clock deadline for one interpreter run.
+* The interpreter ticks once per loop iteration and once per call, never per
+* expression, so straight-line code is bounded by the size of the program.
+* The run's steps are kept in one pool shared by every fork, so tasks and parallel
+* pieces spend the same budget as the code that started them. Each budget takes up to
+* CLOCK_INTERVAL steps from the pool at a time, fewer as the pool runs low so concurrent
+* forks do not strand steps, and reads the clock when it does. A fork gives back the
+* steps it took but did not use when its work is done.
+* */
+class Budget
+{
+    private static final long CLOCK_INTERVAL = 1024;
+
+    private final AtomicLong pool;
+    // Steps taken from the pool and not used yet
+    private long fuel = 0;
+    private final long deadline;
+    private final boolean hasDeadline;
+
+    // maxSteps or timeoutMillis of 0 or less means no limit
+    Budget(long maxSteps, long timeoutMillis)
+    {
+        this.pool = new AtomicLong(maxSteps > 0 ? maxSteps : Long.MAX_VALUE);
+        this.hasDeadline = timeoutMillis > 0;
+        this.deadline = hasDeadline ? System.nanoTime() + timeoutMillis * 1_000_000 : 0;
+    }
+
+    private Budget(AtomicLong pool, boolean hasDeadline, long deadline)
+    {
+        this.pool = pool;
+        this.hasDeadline = hasDeadline;
+        this.deadline = deadline;
+    }
+
+    // For work run on other threads: the same deadline, and steps from the same pool
+    Budget fork()
+    {
+        return new Budget(pool, hasDeadline, deadline);
+    }
+
+    static Budget unlimited()
+    {
+        return new Budget(0, 0);
+    }
+
+    void tick(Token token)
+    {
+        if(--fuel < 0)
+        {
+            refill(token);
+        }
+    }
+
+    // For evaluators that keep lines rather than tokens; a token is only made for a refill
+    void tick(int line)
+    {
+        if(--fuel < 0)
+        {
+            refill(new Token(TokenType.EOF, "", null, line));
+        }
+    }
+
+    // Returns the steps taken but not used to the pool, for a fork whose work is done
+    void release()
+    {
+        if(fuel > 0)
+        {
+            pool.addAndGet(fuel);
+            fuel = 0;
+        }
+    }
+
+    // Takes the next batch of steps for the tick that found none left
+    private void refill(Token token)
+    {
+        if(hasDeadline && System.nanoTime() - deadline > 0)
+        {
+            throw new BudgetExceededError(token, "Execution deadline exceeded.");
+        }
+
+        long left;
+        long batch;
+        do
+        {
+            left = pool.get();
+            batch = left == 0 ? 0 : Math.min(CLOCK_INTERVAL, Math.max(1, left / 16));
+        }
+        while(batch > 0 && !pool.compareAndSet(left, left - batch));
+
+        if(batch == 0)
+        {
+            fuel = 0;
+            throw new BudgetExceededError(token, "Execution step budget exhausted.");
+        }
+        fuel = batch - 1;
+    }
+}
@@ -0,0 +1,10 @@
+package lox;
+
+// Raised when a run uses up its step budget or passes its deadline
+class BudgetExceededError extends RunTimeError
+{
+    BudgetExceededError(Token token, String message)
+    {
+        super(token, message);
+    }
+}
@@ -0,0 +1,195 @@
+package lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+* Statement coverage for --coverage, written as an LCOV tracefile at exit.
+* Each script is registered once after parsing: every statement but a block gets a slot,
+* stored in Statement.coverageSlot as the file's number and the statement's index in it.
+* CoverageInterpreter then adds one to the slot's counter per execution, with no other work.
+*
+* Counters are striped: each interpreter is handed a stripe when created, and its
+* increments go to that stripe's array, so parallel workers and tasks rarely share one.
+* Increments are plain, not atomic, so threads that do share a stripe may lose a few
+* counts, but a statement that ran never reads as unrun. Stripes are summed for the report.
+* */
+class Coverage
+{
+    // Low bits of a slot index the statement in its file, high bits number the file from 1
+    private static final int INDEX_BITS = 20;
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+    private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1);
+
+    private static class SourceFile
+    {
+        final String path;
+        // Line of each statement, by index
+        final int[] lines;
+        // Execution counts by stripe, then statement index
+        final long[][] counts;
+
+        SourceFile(String path, int[] lines)
+        {
+            this.path = path;
+            this.lines = lines;
+            this.counts = new long[STRIPES][lines.length];
+        }
+    }
+
+    private final Path report;
+    private final AtomicInteger nextStripe = new AtomicInteger();
+    // Replaced, never changed, when a file is added, so hit can read it without locking
+    private volatile SourceFile[] files = new SourceFile[0];
+
+    Coverage(Path report)
+    {
+        this.report = report;
+    }
+
+    void start()
+    {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::write));
+    }
+
+    int stripe()
+    {
+        return nextStripe.getAndIncrement() & (STRIPES - 1);
+    }
+
+    void hit(int stripe, int slot)
+    {
+        files[(slot >>> INDEX_BITS) - 1].counts[stripe][slot & INDEX_MASK]++;
+    }
+
+    // Function bodies must already be parsed, as they are in strict mode, or their statements go uncounted
+    synchronized void register(String path, List<Statement> statements)
+    {
+        int number = files.length + 1;
+        if(number >= 1 << (31 - INDEX_BITS))
+        {
+            return;
+        }
+
+        Slots slots = new Slots(number);
+        slots.assign(statements);
+
+        SourceFile[] added = Arrays.copyOf(files, number);
+        added[number - 1] = new SourceFile(path, Arrays.copyOf(slots.lines, slots.count));
+        files = added;
+    }
+
+    private static class Slots
+    {
+        final int number;
+        int[] lines = new int[64];
+        int count = 0;
+
+        Slots(int number)
+        {
+            this.number = number;
+        }
+
+        void assign(List<Statement> statements)
+        {
+            for(Statement statement : statements)
+            {
+                assign(statement);
+            }
+        }
+
+        void assign(Statement statement)
+        {
+            if(statement == null)
+            {
+                return;
+            }
+
+            // A block has no line of its own, so its statements are counted instead,
+            // and neither has an expression statement without a token, such as "1;"
+            int line = statement instanceof Statement.Block ? 0 : Lines.of(statement);
+            if(line > 0 && count <= INDEX_MASK)
+            {
+                if(count == lines.length)
+                {
+                    lines = Arrays.copyOf(lines, count * 2);
+                }
+                lines[count] = line;
+                statement.coverageSlot = number << INDEX_BITS | count;
+                count++;
+            }
+
+            switch (statement)
+            {
+                case Statement.Block block -> assign(block.statements);
+                case Statement.If ifStmt ->
+                {
+                    assign(ifStmt.thenBranch);
+                    assign(ifStmt.elseBranch);
+                }
+                case Statement.While loop -> assign(loop.body);
+                case Statement.Function function ->
+                {
+                    if(function.body.isParsed())
+                    {
+                        assign(function.body.statements());
+                    }
+                }
+                default -> {}
+            }
+        }
+    }
+
+    synchronized void write()
+    {
+        try(PrintStream out = new PrintStream(Files.newOutputStream(report), false, StandardCharsets.UTF_8))
+        {
+            for(SourceFile file : files)
+            {
+                writeFile(out, file);
+            }
+        }
+        catch (IOException e)
+        {
+            System.err.println("Could not write coverage report " + report + ": " + e.getMessage());
+        }
+    }
+
+    // A line's count is the highest count of the statements on it
+    private static void writeFile(PrintStream out, SourceFile file)
+    {
+        Map<Integer, Long> lines = new TreeMap<>();
+        for(int i = 0; i < file.lines.length; i++)
+        {
+            long count = 0;
+            for(long[] stripe : file.counts)
+            {
+                count += stripe[i];
+            }
+            lines.merge(file.lines[i], count, Math::max);
+        }
+
+        out.println("TN:");
+        out.println("SF:" + file.path);
+        int hit = 0;
+        for(Map.Entry<Integer, Long> line : lines.entrySet())
+        {
+            out.println("DA:" + line.getKey() + "," + line.getValue());
+            if(line.getValue() > 0)
+            {
+                hit++;
+            }
+        }
+        out.println("LF:" + lines.size());
+        out.println("LH:" + hit);
+        out.println("end_of_record");
+    }
+}
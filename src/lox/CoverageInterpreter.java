@@ -0,0 +1,38 @@
+package lox;
+
+import java.io.PrintStream;
+
+/*
+* An Interpreter that counts each statement it executes in a Coverage.
+* Only --coverage creates one, so ordinary runs pay nothing for it.
+* Its forks and isolates count into the same Coverage, each on a stripe of its own.
+* */
+class CoverageInterpreter extends Interpreter
+{
+    private final Coverage coverage;
+    private final int stripe;
+
+    CoverageInterpreter(PrintStream out, Environment globals, Coverage coverage)
+    {
+        super(out, globals);
+        this.coverage = coverage;
+        this.stripe = coverage.stripe();
+    }
+
+    @Override
+    Interpreter create(PrintStream out, Environment globals)
+    {
+        return new CoverageInterpreter(out, globals, coverage);
+    }
+
+    @Override
+    void execute(Statement stmt)
+    {
+        // Statements of unregistered sources, such as REPL input, have no slot
+        if(stmt.coverageSlot != 0)
+        {
+            coverage.hit(stripe, stmt.coverageSlot);
+        }
+        super.execute(stmt);
+    }
+}
@@ -0,0 +1,24 @@
+package lox;
+
+/*
+* A syntax error as ErrorLogger reports it, kept instead of printed when a run collects them.
+* */
+record Diagnostic(int line, String where, String message)
+{
+    // The scanner's errors are not at a token
+    boolean isScanError()
+    {
+        return where.isEmpty();
+    }
+
+    Diagnostic atLine(int line)
+    {
+        return new Diagnostic(line, where, message);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("[Line %d] Error %s: %s", line, where, message);
+    }
+}
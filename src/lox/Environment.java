@@ -0,0 +1,157 @@
+package lox;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+class Environment implements Serializable
+{
+    final Environment enclosing;
+    // Concurrent because tasks on other threads may define, assign and read captured scopes and globals
+    private final Map<String, Object> values = new ConcurrentHashMap<>();
+    // Set while a parallel callback may read this scope from other threads
+    private transient boolean frozen;
+    // Set on a run's globals when it spawns its first task, after which any scope may be shared
+    private transient volatile boolean tasks;
+
+    Environment()
+    {
+        enclosing = null;
+    }
+
+    Environment(Environment enclosing)
+    {
+        this.enclosing = enclosing;
+    }
+
+    void define(String name, Object value)
+    {
+        values.put(name, wrap(value));
+    }
+
+    // Defines every name from other's own scope in this one, as an import does with a module's top level
+    void defineAll(Environment other)
+    {
+        values.putAll(other.values);
+    }
+
+    Object get(Token name)
+    {
+        Object value = values.get(name.lexeme);
+        if(value != null)
+        {
+            return unwrap(value);
+        }
+
+        if(enclosing != null)
+        {
+            return enclosing.get(name);
+        }
+
+        throw new RunTimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    }
+
+    // The names defined in this scope alone
+    Set<String> names()
+    {
+        return values.keySet();
+    }
+
+    // The value defined under name in this scope alone, or null if there is none
+    Object lookup(String name)
+    {
+        return unwrap(values.get(name));
+    }
+
+    // The innermost scope from this one outwards that defines name, or null
+    Environment holder(String name)
+    {
+        for(Environment scope = this; scope != null; scope = scope.enclosing)
+        {
+            if(scope.values.containsKey(name))
+            {
+                return scope;
+            }
+        }
+        return null;
+    }
+
+    boolean isFrozen()
+    {
+        return frozen;
+    }
+
+    void assign(Token name, Object value)
+    {
+        if(values.containsKey(name.lexeme))
+        {
+            if(frozen)
+            {
+                throw new RunTimeError(name,
+                        "Cannot assign to captured variable '" + name.lexeme + "' in a parallel callback.");
+            }
+            values.put(name.lexeme, wrap(value));
+            return;
+        }
+
+        if(enclosing != null)
+        {
+            enclosing.assign(name, value);
+            return;
+        }
+
+        throw new RunTimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    }
+
+    // Makes this scope and the ones enclosing it read-only, stopping at one that already is.
+    // Returns that scope so thaw undoes exactly this call's changes.
+    Environment freeze()
+    {
+        Environment scope = this;
+        while(scope != null && !scope.frozen)
+        {
+            scope.frozen = true;
+            scope = scope.enclosing;
+        }
+        return scope;
+    }
+
+    void thaw(Environment stop)
+    {
+        for(Environment scope = this; scope != stop; scope = scope.enclosing)
+        {
+            scope.frozen = false;
+        }
+    }
+
+    // Called on the globals before a task starts
+    void taskStarted()
+    {
+        tasks = true;
+    }
+
+    // Whether the run this scope belongs to has spawned a task, so another thread may be using the scope
+    boolean hasTasks()
+    {
+        Environment scope = this;
+        while(scope.enclosing != null)
+        {
+            scope = scope.enclosing;
+        }
+        return scope.tasks;
+    }
+
+    // ConcurrentHashMap holds no nulls, so nil is stored as Nil.VALUE; an enum stays one instance across snapshots
+    private enum Nil { VALUE }
+
+    private static Object wrap(Object value)
+    {
+        return value == null ? Nil.VALUE : value;
+    }
+
+    private static Object unwrap(Object value)
+    {
+        return value == Nil.VALUE ? null : value;
+    }
+}
@@ -24,14 +24,24 @@ class ErrorLogger {
 
     private static void report(int line, String where, String message)
     {
-        System.err.println(String.format("[Line %d] Error %s: %s",line,where,message));
-        Lox.hadError = true;
+        RunState state = RunState.current();
+        Diagnostic diagnostic = new Diagnostic(line, where, message);
+        if(state.diagnostics != null)
+        {
+            state.diagnostics.add(diagnostic);
+        }
+        else
+        {
+            state.err.println(diagnostic);
+        }
+        state.hadError = true;
     }
 
     static void runTimeError(RunTimeError error)
     {
         String errorMsg = error.getMessage();
-        System.err.printf("%s\n[line %d]%n", errorMsg, error.token.line);
-        Lox.hadRuntimeError = true;
+        RunState state = RunState.current();
+        state.err.printf("%s\n[line %d]%n", errorMsg, error.token.line);
+        state.hadRuntimeError = true;
     }
 }
@@ -0,0 +1,33 @@
+package lox;
+
+import java.util.List;
+
+/*
+* What natives and function calls need from the evaluator running them.
+* Interpreter, SwitchInterpreter and FlatInterpreter all implement it, so a LoxFunction runs
+* its body on whichever evaluator calls it, and tasks, parallel callbacks and isolates get
+* forks of the evaluator that started them.
+* */
+interface ExecutionContext
+{
+    Environment globals();
+
+    // The isolate this evaluator runs in; a top-level program gets a host isolate when it first needs one
+    Isolate isolate();
+
+    // An evaluator of the same kind for work run on another thread.
+    // It shares these globals, output, isolate and step budget.
+    ExecutionContext fork();
+
+    // For a fork whose work is done: its unused steps go back to the run
+    void finishFork();
+
+    // A top-level evaluator of the same kind for a new isolate: its own globals and budget, and this one's output
+    ExecutionContext forIsolate(Isolate isolate);
+
+    // Runs an isolate's script, reporting a runtime error the way a top-level program does
+    void runScript(List<Statement> statements);
+
+    // Runs a function body in environment, which already holds the arguments
+    void executeBody(FunctionBody body, Environment environment);
+}
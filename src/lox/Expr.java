@@ -1,91 +1,113 @@
 package lox;
 
+import java.io.Serializable;
 import java.util.List;
 
-abstract class Expr {
-  interface Visitor<R>
-  {
-    R visitBinaryExpr(Binary expr);
-    R visitGroupingExpr(Grouping expr);
-    R visitLiteralExpr(Literal expr);
-    R visitUnaryExpr(Unary expr);
-    R visitConditionalExpr(Conditional expr);
-    R visitVariableExpr(Variable expr);
-  }
-
-
-
- static class Binary extends Expr
- {
-    final Expr left;
-    final Token operator;
-    final Expr right;
-    Binary(Expr left, Token operator, Expr right)
+// Serializable so function bodies can be stored in interpreter snapshots
+abstract class Expr implements Serializable {
+    interface Visitor<R>
     {
-        this.left = left;
-        this.operator = operator;
-        this.right = right;
+        R visitBinaryExpr(Binary expr);
+        R visitGroupingExpr(Grouping expr);
+        R visitLiteralExpr(Literal expr);
+        R visitUnaryExpr(Unary expr);
+        R visitConditionalExpr(Conditional expr);
+        R visitVariableExpr(Variable expr);
+        R visitCallExpr(Call expr);
+        R visitAssignExpr(Assign expr);
+        R visitLogicalExpr(Logical expr);
     }
 
-    <R> R accept(Visitor<R> visitor)
-    {
-        return visitor.visitBinaryExpr(this);
-    }
- }
- static class Grouping extends Expr
- {
-    final Expr expression;
-    Grouping(Expr expression)
-    {
-        this.expression = expression;
-    }
+    abstract <R> R accept(Visitor<R> visitor);
 
-    <R> R accept(Visitor<R> visitor)
-    {
-        return visitor.visitGroupingExpr(this);
-    }
- }
- static class Literal extends Expr
- {
-    final Object value;
-    Literal(Object value)
+    static class Binary extends Expr
     {
-        this.value = value;
+        final Expr left;
+        final Token operator;
+        final Expr right;
+        // Set after parsing by an analysis pass or the interpreter
+        LoxType operands;
+
+        Binary(Expr left, Token operator, Expr right)
+        {
+            this.left = left;
+            this.operator = operator;
+            this.right = right;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor)
+        {
+            return visitor.visitBinaryExpr(this);
+        }
     }
 
-    <R> R accept(Visitor<R> visitor)
+    static class Grouping extends Expr
     {
-        return visitor.visitLiteralExpr(this);
+        final Expr expression;
+
+        Grouping(Expr expression)
+        {
+            this.expression = expression;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor)
+        {
+            return visitor.visitGroupingExpr(this);
+        }
     }
- }
- static class Unary extends Expr
- {
-    final Token operator;
-    final Expr right;
-    Unary(Token operator, Expr right)
+
+    static class Literal extends Expr
     {
-        this.operator = operator;
-        this.right = right;
+        final Object value;
+
+        Literal(Object value)
+        {
+            this.value = value;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor)
+        {
+            return visitor.visitLiteralExpr(this);
+        }
     }
 
-    <R> R accept(Visitor<R> visitor)
+    static class Unary extends Expr
     {
-        return visitor.visitUnaryExpr(this);
+        final Token operator;
+        final Expr right;
+        // Set after parsing by an analysis pass or the interpreter
+        LoxType operand;
+
+        Unary(Token operator, Expr right)
+        {
+            this.operator = operator;
+            this.right = right;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor)
+        {
+            return visitor.visitUnaryExpr(this);
+        }
     }
- }
 
     static class Conditional extends Expr
     {
         final Expr expr;
-        final Expr elseBranch;
         final Expr thenBranch;
-        Conditional(Expr expr, Expr thenBranch,Expr elseBranch)
+        final Expr elseBranch;
+
+        Conditional(Expr expr, Expr thenBranch, Expr elseBranch)
         {
             this.expr = expr;
-            this.elseBranch = elseBranch;
             this.thenBranch = thenBranch;
+            this.elseBranch = elseBranch;
         }
 
+        @Override
         <R> R accept(Visitor<R> visitor)
         {
             return visitor.visitConditionalExpr(this);
@@ -108,5 +130,61 @@ abstract class Expr {
         }
     }
 
-  abstract <R> R accept(Visitor<R> visitor);
+    static class Call extends Expr
+    {
+        final Expr callee;
+        final Token paren;
+        final List<Expr> arguments;
+
+        Call(Expr callee, Token paren, List<Expr> arguments)
+        {
+            this.callee = callee;
+            this.paren = paren;
+            this.arguments = arguments;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor)
+        {
+            return visitor.visitCallExpr(this);
+        }
+    }
+
+    static class Assign extends Expr
+    {
+        final Token name;
+        final Expr value;
+
+        Assign(Token name, Expr value)
+        {
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor)
+        {
+            return visitor.visitAssignExpr(this);
+        }
+    }
+
+    static class Logical extends Expr
+    {
+        final Expr left;
+        final Token operator;
+        final Expr right;
+
+        Logical(Expr left, Token operator, Expr right)
+        {
+            this.left = left;
+            this.operator = operator;
+            this.right = right;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor)
+        {
+            return visitor.visitLogicalExpr(this);
+        }
+    }
 }
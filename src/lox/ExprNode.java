@@ -0,0 +1,83 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Immutable mirror of Expr, built once its analysis passes have run
+sealed interface ExprNode
+{
+    record Binary(ExprNode left, Token operator, ExprNode right, LoxType operands) implements ExprNode {}
+    record Grouping(ExprNode expression) implements ExprNode {}
+    record Literal(Object value) implements ExprNode {}
+    record Unary(Token operator, ExprNode right, LoxType operand) implements ExprNode {}
+    record Conditional(ExprNode expr, ExprNode thenBranch, ExprNode elseBranch) implements ExprNode {}
+    record Variable(Token name) implements ExprNode {}
+    record Call(ExprNode callee, Token paren, List<ExprNode> arguments) implements ExprNode {}
+    record Assign(Token name, ExprNode value) implements ExprNode {}
+    record Logical(ExprNode left, Token operator, ExprNode right) implements ExprNode {}
+
+    static ExprNode of(Expr node)
+    {
+        if(node == null)
+        {
+            return null;
+        }
+
+        if(node instanceof Expr.Binary binaryNode)
+        {
+            return new Binary(ExprNode.of(binaryNode.left), binaryNode.operator, ExprNode.of(binaryNode.right), binaryNode.operands);
+        }
+
+        if(node instanceof Expr.Grouping groupingNode)
+        {
+            return new Grouping(ExprNode.of(groupingNode.expression));
+        }
+
+        if(node instanceof Expr.Literal literalNode)
+        {
+            return new Literal(literalNode.value);
+        }
+
+        if(node instanceof Expr.Unary unaryNode)
+        {
+            return new Unary(unaryNode.operator, ExprNode.of(unaryNode.right), unaryNode.operand);
+        }
+
+        if(node instanceof Expr.Conditional conditionalNode)
+        {
+            return new Conditional(ExprNode.of(conditionalNode.expr), ExprNode.of(conditionalNode.thenBranch), ExprNode.of(conditionalNode.elseBranch));
+        }
+
+        if(node instanceof Expr.Variable variableNode)
+        {
+            return new Variable(variableNode.name);
+        }
+
+        if(node instanceof Expr.Call callNode)
+        {
+            return new Call(ExprNode.of(callNode.callee), callNode.paren, ExprNode.ofAll(callNode.arguments));
+        }
+
+        if(node instanceof Expr.Assign assignNode)
+        {
+            return new Assign(assignNode.name, ExprNode.of(assignNode.value));
+        }
+
+        if(node instanceof Expr.Logical logicalNode)
+        {
+            return new Logical(ExprNode.of(logicalNode.left), logicalNode.operator, ExprNode.of(logicalNode.right));
+        }
+
+        throw new IllegalArgumentException("Unknown Expr: " + node.getClass());
+    }
+
+    static List<ExprNode> ofAll(List<Expr> nodes)
+    {
+        List<ExprNode> converted = new ArrayList<>(nodes.size());
+        for(Expr node : nodes)
+        {
+            converted.add(of(node));
+        }
+        return converted;
+    }
+}
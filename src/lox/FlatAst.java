@@ -0,0 +1,304 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+* A program encoded as ints instead of one object per node, for FlatInterpreter.
+* A node is its offset in code: the kind, then its operands, which are child offsets,
+* constant pool indices or counts. Binary and unary operators are folded into the kind,
+* and grouping is dropped, so an expression node takes 2 to 4 ints.
+* Structurally identical expressions are stored once, so every use of a variable or
+* constant, and every repeat of a subexpression, shares one node.
+* Statements are not shared, since each keeps the line its errors are reported on.
+* Expressions carry no lines: an error in one reports its statement's line, which is the
+* line Interpreter reports unless the statement spans several.
+* */
+class FlatAst
+{
+    static final int NONE = -1;
+
+    // Expressions
+    static final int CONSTANT = 0;      // constant
+    static final int VARIABLE = 1;      // name
+    static final int ASSIGN = 2;        // name, value
+    static final int NEGATE = 3;        // operand
+    static final int NOT = 4;           // operand
+    static final int ADD = 5;           // left, right, as for every binary kind up to OR
+    static final int SUBTRACT = 6;
+    static final int MULTIPLY = 7;
+    static final int DIVIDE = 8;
+    static final int GREATER = 9;
+    static final int GREATER_EQUAL = 10;
+    static final int LESS = 11;
+    static final int LESS_EQUAL = 12;
+    static final int EQUAL = 13;
+    static final int NOT_EQUAL = 14;
+    static final int AND = 15;
+    static final int OR = 16;
+    static final int CONDITIONAL = 17;  // condition, then, else
+    static final int CALL = 18;         // callee, count, arguments...
+
+    // Statements, each followed by its line
+    static final int PRINT = 19;        // expression
+    static final int EXPRESSION = 20;   // expression
+    static final int VAR = 21;          // name, initializer or NONE
+    static final int BLOCK = 22;        // count, statements...
+    static final int FUNCTION = 23;     // declaration
+    static final int RETURN = 24;       // value or NONE
+    static final int IF = 25;           // condition, then, else or NONE
+    static final int WHILE = 26;        // condition, body
+    static final int IMPORT = 27;       // path token
+
+    final int[] code;
+    final Object[] constants;
+    // A BLOCK holding the top-level statements, which run in the enclosing scope rather than a new one
+    final int root;
+
+    private FlatAst(int[] code, Object[] constants, int root)
+    {
+        this.code = code;
+        this.constants = constants;
+        this.root = root;
+    }
+
+    static FlatAst encode(List<Statement> statements)
+    {
+        Encoder encoder = new Encoder();
+        int root = encoder.block(statements, 0);
+        return new FlatAst(Arrays.copyOf(encoder.code, encoder.length), encoder.constants.toArray(), root);
+    }
+
+    int size()
+    {
+        return code.length;
+    }
+
+    private static class Encoder
+    {
+        private int[] code = new int[1024];
+        private int length = 0;
+        private final List<Object> constants = new ArrayList<>();
+        private final Map<Object, Integer> constantIndices = new HashMap<>();
+        private final Map<Node, Integer> expressions = new HashMap<>();
+
+        private int statement(Statement statement)
+        {
+            switch (statement)
+            {
+                case Statement.Print print ->
+                {
+                    return emit(PRINT, Lines.of(print.expression), expression(print.expression));
+                }
+                case Statement.Expression expression ->
+                {
+                    return emit(EXPRESSION, Lines.of(expression.expression), expression(expression.expression));
+                }
+                case Statement.Var var ->
+                {
+                    return emit(VAR, var.name.line, constant(var.name.lexeme), optional(var.initializer));
+                }
+                case Statement.Block block ->
+                {
+                    return block(block.statements, Lines.of(block));
+                }
+                case Statement.Function function ->
+                {
+                    // Declarations are distinct objects, so each gets its own constant.
+                    // Its body is not part of this encoding: FlatInterpreter encodes it on the first call.
+                    constants.add(function);
+                    return emit(FUNCTION, function.name.line, constants.size() - 1);
+                }
+                case Statement.Return ret ->
+                {
+                    return emit(RETURN, ret.keyword.line, optional(ret.value));
+                }
+                case Statement.If ifStmt ->
+                {
+                    int condition = expression(ifStmt.condition);
+                    int thenBranch = statement(ifStmt.thenBranch);
+                    int elseBranch = ifStmt.elseBranch == null ? NONE : statement(ifStmt.elseBranch);
+                    return emit(IF, Lines.of(ifStmt.condition), condition, thenBranch, elseBranch);
+                }
+                case Statement.While loop ->
+                {
+                    int condition = expression(loop.condition);
+                    return emit(WHILE, loop.keyword.line, condition, statement(loop.body));
+                }
+                case Statement.Import module ->
+                {
+                    constants.add(module.path);
+                    return emit(IMPORT, module.keyword.line, constants.size() - 1);
+                }
+                default -> throw new IllegalArgumentException("Unknown statement " + statement);
+            }
+        }
+
+        private int block(List<Statement> statements, int line)
+        {
+            int[] children = new int[statements.size()];
+            for(int i = 0; i < children.length; i++)
+            {
+                children[i] = statement(statements.get(i));
+            }
+
+            int node = reserve(3 + children.length);
+            code[node] = BLOCK;
+            code[node + 1] = line;
+            code[node + 2] = children.length;
+            System.arraycopy(children, 0, code, node + 3, children.length);
+            return node;
+        }
+
+        private int optional(Expr expr)
+        {
+            return expr == null ? NONE : expression(expr);
+        }
+
+        private int expression(Expr expr)
+        {
+            switch (expr)
+            {
+                case Expr.Literal literal ->
+                {
+                    return share(CONSTANT, constant(literal.value));
+                }
+                case Expr.Grouping grouping ->
+                {
+                    return expression(grouping.expression);
+                }
+                case Expr.Variable variable ->
+                {
+                    return share(VARIABLE, constant(variable.name.lexeme));
+                }
+                case Expr.Assign assign ->
+                {
+                    return share(ASSIGN, constant(assign.name.lexeme), expression(assign.value));
+                }
+                case Expr.Unary unary ->
+                {
+                    return share(unary.operator.type == TokenType.MINUS ? NEGATE : NOT, expression(unary.right));
+                }
+                case Expr.Binary binary ->
+                {
+                    return share(binaryKind(binary.operator.type), expression(binary.left), expression(binary.right));
+                }
+                case Expr.Logical logical ->
+                {
+                    int kind = logical.operator.type == TokenType.OR ? OR : AND;
+                    return share(kind, expression(logical.left), expression(logical.right));
+                }
+                case Expr.Conditional conditional ->
+                {
+                    return share(CONDITIONAL, expression(conditional.expr), expression(conditional.thenBranch),
+                            expression(conditional.elseBranch));
+                }
+                case Expr.Call call ->
+                {
+                    int[] node = new int[3 + call.arguments.size()];
+                    node[0] = CALL;
+                    node[1] = expression(call.callee);
+                    node[2] = call.arguments.size();
+                    for(int i = 0; i < call.arguments.size(); i++)
+                    {
+                        node[3 + i] = expression(call.arguments.get(i));
+                    }
+                    return share(node);
+                }
+                default -> throw new IllegalArgumentException("Unknown expression " + expr);
+            }
+        }
+
+        private static int binaryKind(TokenType operator)
+        {
+            return switch (operator)
+            {
+                case PLUS -> ADD;
+                case MINUS -> SUBTRACT;
+                case STAR -> MULTIPLY;
+                case SLASH -> DIVIDE;
+                case GREATER -> GREATER;
+                case GREATER_EQUAL -> GREATER_EQUAL;
+                case LESS -> LESS;
+                case LESS_EQUAL -> LESS_EQUAL;
+                case EQUAL_EQUAL -> EQUAL;
+                case BANG_EQUAL -> NOT_EQUAL;
+                default -> throw new IllegalArgumentException("Unknown operator " + operator);
+            };
+        }
+
+        // Equal values share a constant; 1 and 1.0 stay apart, since Long and Double are never equals
+        private int constant(Object value)
+        {
+            Integer index = constantIndices.get(value);
+            if(index == null)
+            {
+                index = constants.size();
+                constants.add(value);
+                constantIndices.put(value, index);
+            }
+            return index;
+        }
+
+        // Children are encoded first, so equal subtrees already have equal offsets
+        private int share(int... node)
+        {
+            Node key = new Node(node);
+            Integer existing = expressions.get(key);
+            if(existing != null)
+            {
+                return existing;
+            }
+
+            int offset = emit(node);
+            expressions.put(key, offset);
+            return offset;
+        }
+
+        private int emit(int... node)
+        {
+            int offset = reserve(node.length);
+            System.arraycopy(node, 0, code, offset, node.length);
+            return offset;
+        }
+
+        private int reserve(int size)
+        {
+            if(length + size > code.length)
+            {
+                code = Arrays.copyOf(code, Math.max(code.length * 2, length + size));
+            }
+            int offset = length;
+            length += size;
+            return offset;
+        }
+    }
+
+    // An expression node's ints as a hash key
+    private static class Node
+    {
+        final int[] ints;
+        final int hash;
+
+        Node(int[] ints)
+        {
+            this.ints = ints;
+            this.hash = Arrays.hashCode(ints);
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            return other instanceof Node node && hash == node.hash && Arrays.equals(ints, node.ints);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package lox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static lox.FlatAst.*;
+
+/*
+* Runs a FlatAst directly, switching on each node's kind in its int array.
+* Semantics and error messages are the same as Interpreter's; an error is reported on
+* the line of the statement it happened in. Each evaluation passes that line down, so
+* nodes shared between statements need not record one.
+* */
+class FlatInterpreter implements ExecutionContext
+{
+    final Environment globals;
+    private Environment environment;
+    private final PrintStream out;
+    private Budget budget = Budget.unlimited();
+    private Isolate isolate;
+    private Imports imports = new Imports();
+
+    // The program or function body being run, swapped on calls like the environment
+    private int[] code;
+    private Object[] constants;
+
+    FlatInterpreter(PrintStream out)
+    {
+        this(out, Natives.globals());
+    }
+
+    FlatInterpreter(PrintStream out, Environment globals)
+    {
+        this.globals = globals;
+        this.environment = globals;
+        this.out = out;
+    }
+
+    void setBudget(Budget budget)
+    {
+        this.budget = budget;
+    }
+
+    @Override
+    public Environment globals()
+    {
+        return globals;
+    }
+
+    @Override
+    public synchronized Isolate isolate()
+    {
+        if(isolate == null)
+        {
+            isolate = Isolate.host();
+        }
+        return isolate;
+    }
+
+    @Override
+    public FlatInterpreter fork()
+    {
+        FlatInterpreter forked = new FlatInterpreter(out, globals);
+        forked.budget = budget.fork();
+        forked.isolate = isolate();
+        forked.imports = imports.fork();
+        return forked;
+    }
+
+    @Override
+    public void finishFork()
+    {
+        budget.release();
+    }
+
+    @Override
+    public FlatInterpreter forIsolate(Isolate isolate)
+    {
+        FlatInterpreter isolated = new FlatInterpreter(out, Natives.globals());
+        isolated.budget = Lox.newBudget();
+        isolated.isolate = isolate;
+        return isolated;
+    }
+
+    @Override
+    public void runScript(List<Statement> statements)
+    {
+        interpret(FlatAst.encode(statements));
+    }
+
+    @Override
+    public void executeBody(FunctionBody body, Environment environment)
+    {
+        run(body.flat(), environment);
+    }
+
+    void interpret(FlatAst program)
+    {
+        int[] previousCode = code;
+        Object[] previousConstants = constants;
+        try
+        {
+            code = program.code;
+            constants = program.constants;
+            executeAll(program.root);
+        }
+        catch (RunTimeError error)
+        {
+            ErrorLogger.runTimeError(error);
+        }
+        finally
+        {
+            code = previousCode;
+            constants = previousConstants;
+        }
+    }
+
+    // Runs a module's top level or a function body in scope
+    private void run(FlatAst program, Environment scope)
+    {
+        Environment previous = environment;
+        int[] previousCode = code;
+        Object[] previousConstants = constants;
+        try
+        {
+            environment = scope;
+            code = program.code;
+            constants = program.constants;
+            executeAll(program.root);
+        }
+        finally
+        {
+            environment = previous;
+            code = previousCode;
+            constants = previousConstants;
+        }
+    }
+
+    // Runs a BLOCK's statements in the current environment
+    private void executeAll(int block)
+    {
+        int count = code[block + 2];
+        for(int i = 0; i < count; i++)
+        {
+            execute(code[block + 3 + i]);
+        }
+    }
+
+    private void execute(int node)
+    {
+        int line = code[node + 1];
+        switch (code[node])
+        {
+            case PRINT -> out.println(Interpreter.stringify(evaluate(code[node + 2], line)));
+            case EXPRESSION -> evaluate(code[node + 2], line);
+            case VAR ->
+            {
+                int initializer = code[node + 3];
+                Object value = initializer == NONE ? null : evaluate(initializer, line);
+                environment.define((String)constants[code[node + 2]], value);
+            }
+            case BLOCK ->
+            {
+                Environment previous = environment;
+                try
+                {
+                    environment = new Environment(previous);
+                    executeAll(node);
+                }
+                finally
+                {
+                    environment = previous;
+                }
+            }
+            case FUNCTION ->
+            {
+                Statement.Function declaration = (Statement.Function)constants[code[node + 2]];
+                environment.define(declaration.name.lexeme, new LoxFunction(declaration, environment));
+            }
+            case RETURN ->
+            {
+                int value = code[node + 2];
+                throw new Return(value == NONE ? null : evaluate(value, line));
+            }
+            case IF ->
+            {
+                if(Interpreter.isTruthy(evaluate(code[node + 2], line)))
+                {
+                    execute(code[node + 3]);
+                }
+                else if(code[node + 4] != NONE)
+                {
+                    execute(code[node + 4]);
+                }
+            }
+            case WHILE ->
+            {
+                while(Interpreter.isTruthy(evaluate(code[node + 2], line)))
+                {
+                    execute(code[node + 3]);
+                    budget.tick(line);
+                }
+            }
+            case IMPORT ->
+            {
+                Token path = (Token)constants[code[node + 2]];
+                Module module = Module.load(path);
+                environment.defineAll(imports.scope(module, path, globals, scope -> run(module.flat(), scope)));
+            }
+            default -> throw new IllegalStateException("Bad statement kind " + code[node]);
+        }
+    }
+
+    private Object evaluate(int node, int line)
+    {
+        int kind = code[node];
+        switch (kind)
+        {
+            case CONSTANT:
+                return constants[code[node + 1]];
+            case VARIABLE:
+            {
+                String name = (String)constants[code[node + 1]];
+                Environment scope = environment.holder(name);
+                if(scope == null)
+                {
+                    throw new RunTimeError(token(line), "Undefined variable '" + name + "'.");
+                }
+                return scope.lookup(name);
+            }
+            case ASSIGN:
+            {
+                Object value = evaluate(code[node + 2], line);
+                String name = (String)constants[code[node + 1]];
+                Environment scope = environment.holder(name);
+                if(scope == null || scope.isFrozen())
+                {
+                    // Throws the same error Interpreter would
+                    environment.assign(new Token(TokenType.IDENTIFIER, name, null, line), value);
+                }
+                else
+                {
+                    scope.define(name, value);
+                }
+                return value;
+            }
+            case NEGATE:
+            {
+                Object operand = evaluate(code[node + 1], line);
+                if(!Numbers.isNumber(operand))
+                {
+                    throw new RunTimeError(token(line), "Operand must be a number.");
+                }
+                return Numbers.negate(operand);
+            }
+            case NOT:
+                return !Interpreter.isTruthy(evaluate(code[node + 1], line));
+            case AND:
+            case OR:
+            {
+                Object left = evaluate(code[node + 1], line);
+                boolean truthy = Interpreter.isTruthy(left);
+                if(kind == OR ? truthy : !truthy)
+                {
+                    return left;
+                }
+                return evaluate(code[node + 2], line);
+            }
+            // Same result as Interpreter.visitConditionalExpr
+            case CONDITIONAL:
+                return evaluate(code[node + 2], line);
+            case CALL:
+                return call(node, line);
+            default:
+                return binary(kind, evaluate(code[node + 1], line), evaluate(code[node + 2], line), line);
+        }
+    }
+
+    private Object binary(int kind, Object left, Object right, int line)
+    {
+        switch (kind)
+        {
+            case EQUAL:
+                return Interpreter.isEqual(left, right);
+            case NOT_EQUAL:
+                return !Interpreter.isEqual(left, right);
+            case ADD:
+                if(Numbers.isNumber(left) && Numbers.isNumber(right))
+                {
+                    return Numbers.add(left, right);
+                }
+                if(left instanceof String && right instanceof String)
+                {
+                    return (String)left + (String)right;
+                }
+                throw new RunTimeError(token(line), "Operands must be two numbers or two strings.");
+            default:
+                break;
+        }
+
+        if(!Numbers.isNumber(left) || !Numbers.isNumber(right))
+        {
+            throw new RunTimeError(token(line), "Operands must be a number.");
+        }
+
+        return switch (kind)
+        {
+            case SUBTRACT -> Numbers.subtract(left, right);
+            case MULTIPLY -> Numbers.multiply(left, right);
+            case DIVIDE -> Numbers.divide(left, right);
+            case GREATER -> Numbers.greater(left, right);
+            case GREATER_EQUAL -> Numbers.greaterEqual(left, right);
+            case LESS -> Numbers.less(left, right);
+            case LESS_EQUAL -> Numbers.lessEqual(left, right);
+            default -> throw new IllegalStateException("Bad expression kind " + kind);
+        };
+    }
+
+    private Object call(int node, int line)
+    {
+        Object callee = evaluate(code[node + 1], line);
+
+        int count = code[node + 2];
+        List<Object> arguments = new ArrayList<>(count);
+        for(int i = 0; i < count; i++)
+        {
+            arguments.add(evaluate(code[node + 3 + i], line));
+        }
+
+        if(!(callee instanceof LoxCallable function))
+        {
+            throw new RunTimeError(token(line), "Can only call functions and classes.");
+        }
+
+        if(count != function.arity())
+        {
+            throw new RunTimeError(token(line),
+                    "Expected " + function.arity() + " arguments but got " + count + ".");
+        }
+
+        budget.tick(line);
+        try
+        {
+            return function.call(this, arguments);
+        }
+        catch (NativeError error)
+        {
+            throw new RunTimeError(token(line), error.getMessage());
+        }
+    }
+
+    // Errors only use the token for its line
+    private static Token token(int line)
+    {
+        return new Token(TokenType.EOF, "", null, line);
+    }
+}
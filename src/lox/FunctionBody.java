@@ -0,0 +1,115 @@
+package lox;
+
+import java.io.Serializable;
+import java.util.List;
+
+/*
+* Body of a function declaration.
+* Outside strict mode the parser only matches braces and records where the body is
+* in the source; it is scanned again and parsed on the first call, and the statements
+* are kept for later calls. Until then it holds no tokens, only the source text, which
+* every body of a file shares.
+* */
+class FunctionBody implements Serializable
+{
+    private final Token name;
+    // The file's text and the offsets of the body's braces, until it is parsed
+    private String source;
+    private final int open;
+    private final int close;
+    private final int line;
+    private volatile List<Statement> statements;
+    private transient volatile List<StmtNode> nodes;
+    private transient volatile FlatAst flat;
+
+    private FunctionBody(Token name, String source, int open, int close, int line, List<Statement> statements)
+    {
+        this.name = name;
+        this.source = source;
+        this.open = open;
+        this.close = close;
+        this.line = line;
+        this.statements = statements;
+    }
+
+    static FunctionBody parsed(Token name, List<Statement> statements)
+    {
+        return new FunctionBody(name, null, 0, 0, 0, statements);
+    }
+
+    // open and close are the offsets of the body's '{' and matching '}', and line is the line of the '{'
+    static FunctionBody deferred(Token name, String source, int open, int close, int line)
+    {
+        return new FunctionBody(name, source, open, close, line, null);
+    }
+
+    boolean isParsed()
+    {
+        return statements != null;
+    }
+
+    List<Statement> statements()
+    {
+        List<Statement> body = statements;
+        if(body == null)
+        {
+            body = parse(true);
+        }
+        return body;
+    }
+
+    // The body as records for SwitchInterpreter, converted on first use.
+    // Racing callers may both convert, which is harmless since the result is immutable.
+    List<StmtNode> nodes()
+    {
+        List<StmtNode> body = nodes;
+        if(body == null)
+        {
+            body = StmtNode.ofAll(statements());
+            nodes = body;
+        }
+        return body;
+    }
+
+    // The body encoded for FlatInterpreter, also converted on first use.
+    // A body that has not been parsed yet is parsed only to be encoded and keeps its place in
+    // the source instead of the tree, which is parsed again if anything asks for the statements.
+    FlatAst flat()
+    {
+        FlatAst body = flat;
+        if(body == null)
+        {
+            List<Statement> parsed = statements;
+            body = FlatAst.encode(parsed != null ? parsed : parse(false));
+            flat = body;
+        }
+        return body;
+    }
+
+    // With keep set the statements are kept for later calls and the source is let go
+    private synchronized List<Statement> parse(boolean keep)
+    {
+        if(statements != null)
+        {
+            return statements;
+        }
+
+        // The '}' is scanned too, so an error at the end of the body is reported at it as before
+        Scanner scanner = new Scanner(source, open + 1, line);
+        List<Token> tokens = scanner.scanTokens(close + 1);
+        Parser parser = new Parser(scanner, tokens.size() - 2);
+        List<Statement> body = parser.parse();
+        if(parser.hadError())
+        {
+            throw new RunTimeError(name, "Syntax error in body of '" + name.lexeme + "'.");
+        }
+
+        TypeInference.analyze(body);
+        if(keep)
+        {
+            statements = body;
+            source = null;
+        }
+        return body;
+    }
+}
@@ -0,0 +1,167 @@
+package lox;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+
+/*
+* The modules one run has imported, each with the scope its top level ran in.
+* A module's top level runs the first time the run imports it, in a scope of its own
+* under the run's globals; later imports reuse that scope.
+* Each interpreter of the run has its own Imports over the run's shared table, so it knows
+* which modules it is running the top level of. An import that reaches one of those again,
+* as in a cycle, gets the scope as far as it has run. Other interpreters wait on a latch
+* until the top level has finished, and no lock is held while Lox code runs.
+* Waiting would never end in two cases, which are runtime errors instead: a fork, such as a
+* task spawned by the top level, importing the module its ancestor is still running, and
+* interpreters on different threads each waiting for a module the other is running.
+* */
+class Imports
+{
+    private final Map<Path, Instance> instances;
+    // Modules whose top level the interpreters this one was forked from were running at the time
+    private final List<Instance> ancestors;
+    // Modules whose top level this interpreter is running, innermost first
+    private final Deque<Instance> running = new ArrayDeque<>();
+    // The module this interpreter is waiting for, guarded by instances
+    private Instance waitingFor;
+
+    Imports()
+    {
+        this(new HashMap<>(), List.of());
+    }
+
+    private Imports(Map<Path, Instance> instances, List<Instance> ancestors)
+    {
+        this.instances = instances;
+        this.ancestors = ancestors;
+    }
+
+    // For an interpreter forked from this one, which shares the run's modules
+    Imports fork()
+    {
+        List<Instance> inherited = new ArrayList<>(ancestors);
+        inherited.addAll(running);
+        return new Imports(instances, inherited);
+    }
+
+    // The module's scope in this run, made and passed to initialize on first use
+    Environment scope(Module module, Token name, Environment globals, Consumer<Environment> initialize)
+    {
+        Instance instance;
+        synchronized (instances)
+        {
+            instance = instances.get(module.path);
+            if(instance == null)
+            {
+                instance = new Instance(new Environment(globals), this);
+                instances.put(module.path, instance);
+            }
+            else if(instance.isRunning() && !running.contains(instance))
+            {
+                checkCanWait(instance, name);
+                waitingFor = instance;
+            }
+        }
+
+        if(instance.owner == this && !instance.started)
+        {
+            run(instance, initialize);
+        }
+        else if(waitingFor == instance)
+        {
+            await(instance, name);
+        }
+
+        if(instance.failed)
+        {
+            throw new RunTimeError(name, "Module " + name.literal + " failed to initialize.");
+        }
+        return instance.scope;
+    }
+
+    private void run(Instance instance, Consumer<Environment> initialize)
+    {
+        instance.started = true;
+        running.push(instance);
+        try
+        {
+            initialize.accept(instance.scope);
+        }
+        catch (RuntimeException | Error error)
+        {
+            instance.failed = true;
+            throw error;
+        }
+        finally
+        {
+            running.pop();
+            instance.done.countDown();
+        }
+    }
+
+    private void await(Instance instance, Token name)
+    {
+        try
+        {
+            instance.done.await();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RunTimeError(name, "Interrupted while importing " + name.literal + ".");
+        }
+        finally
+        {
+            synchronized (instances)
+            {
+                waitingFor = null;
+            }
+        }
+    }
+
+    // Follows who waits for whom from the module's owner; called holding the instances lock
+    private void checkCanWait(Instance instance, Token name)
+    {
+        if(ancestors.contains(instance))
+        {
+            throw new RunTimeError(name,
+                    "Module " + name.literal + " is still running its top level in the code that started this one.");
+        }
+
+        for(Instance next = instance; next != null && next.isRunning(); next = next.owner.waitingFor)
+        {
+            if(next.owner == this)
+            {
+                throw new RunTimeError(name, "Import cycle between threads at module " + name.literal + ".");
+            }
+        }
+    }
+
+    private static class Instance
+    {
+        final Environment scope;
+        // The interpreter that runs the top level
+        final Imports owner;
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile boolean started;
+        volatile boolean failed;
+
+        Instance(Environment scope, Imports owner)
+        {
+            this.scope = scope;
+            this.owner = owner;
+        }
+
+        boolean isRunning()
+        {
+            return done.getCount() > 0;
+        }
+    }
+}
@@ -1,9 +1,106 @@
 package lox;
 
+import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.List;
 
-public class Interpreter implements Expr.Visitor<Object>, Statement.Visitor<Void>
+public class Interpreter implements Expr.Visitor<Object>, Statement.Visitor<Void>, ExecutionContext
 {
+    final Environment globals;
+    private Environment environment;
+    private final PrintStream out;
+    private Budget budget = Budget.unlimited();
+    // The isolate this interpreter runs in; a top-level program gets a host isolate when it first needs one
+    private Isolate isolate;
+    // Modules this run has imported, shared with its forks
+    private Imports imports = new Imports();
+
+    Interpreter()
+    {
+        this(System.out);
+    }
+
+    Interpreter(PrintStream out)
+    {
+        this(out, Natives.globals());
+    }
+
+    Interpreter(PrintStream out, Environment globals)
+    {
+        this.out = out;
+        this.globals = globals;
+        this.environment = globals;
+    }
+
+    @Override
+    public Environment globals()
+    {
+        return globals;
+    }
+
+    void setBudget(Budget budget)
+    {
+        this.budget = budget;
+    }
+
+    void setIsolate(Isolate isolate)
+    {
+        this.isolate = isolate;
+    }
+
+    @Override
+    public synchronized Isolate isolate()
+    {
+        if(isolate == null)
+        {
+            isolate = Isolate.host();
+        }
+        return isolate;
+    }
+
+    @Override
+    public Interpreter forIsolate(Isolate isolate)
+    {
+        Interpreter isolated = create(out, Natives.globals());
+        isolated.setBudget(Lox.newBudget());
+        isolated.setIsolate(isolate);
+        return isolated;
+    }
+
+    // Forks also share the modules this interpreter has imported
+    @Override
+    public Interpreter fork()
+    {
+        Interpreter forked = create(out, globals);
+        forked.setBudget(budget.fork());
+        forked.setIsolate(isolate());
+        forked.imports = imports.fork();
+        return forked;
+    }
+
+    @Override
+    public void finishFork()
+    {
+        budget.release();
+    }
+
+    // Makes the interpreters for forks and isolates, so a subclass's forks are of its own kind
+    Interpreter create(PrintStream out, Environment globals)
+    {
+        return new Interpreter(out, globals);
+    }
+
+    @Override
+    public void runScript(List<Statement> statements)
+    {
+        interpret(statements);
+    }
+
+    @Override
+    public void executeBody(FunctionBody body, Environment environment)
+    {
+        executeBlock(body.statements(), environment);
+    }
 
     void interpret(List<Statement> stmts)
     {
@@ -29,29 +126,36 @@ public class Interpreter implements Expr.Visitor<Object>, Statement.Visitor<Void
         switch (expr.operator.type)
         {
             case GREATER:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left > (double)right;
+                checkNumberOperands(expr, left, right);
+                return Numbers.greater(left, right);
             case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left >= (double)right;
+                checkNumberOperands(expr, left, right);
+                return Numbers.greaterEqual(left, right);
             case LESS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left < (double)right;
+                checkNumberOperands(expr, left, right);
+                return Numbers.less(left, right);
             case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left <= (double)right;
+                checkNumberOperands(expr, left, right);
+                return Numbers.lessEqual(left, right);
             case BANG_EQUAL:
                 return !isEqual(left, right);
             case EQUAL_EQUAL:
                 return isEqual(left, right);
             case MINUS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left - (double)right;
-            // PLUS could be used for string concatenation or arithmetic operation
+                checkNumberOperands(expr, left, right);
+                return Numbers.subtract(left, right);
+            // PLUS could be used for string concatenation or arithmetic operation.
+            // TypeInference's annotation only picks which check comes first; a call or a task
+            // can change a variable behind its back, so the types are always checked.
             case PLUS:
-                if(left instanceof Double && right instanceof Double)
+                if(expr.operands == LoxType.STRING && left instanceof String && right instanceof String)
                 {
-                    return (double)left + (double)right;
+                    return (String)left + (String)right;
+                }
+
+                if(Numbers.isNumber(left) && Numbers.isNumber(right))
+                {
+                    return Numbers.add(left, right);
                 }
 
                 if(left instanceof String && right instanceof String)
@@ -61,11 +165,11 @@ public class Interpreter implements Expr.Visitor<Object>, Statement.Visitor<Void
 
                 throw new RunTimeError(expr.operator, "Operands must be two numbers or two strings.");
             case SLASH:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left / (double)right;
+                checkNumberOperands(expr, left, right);
+                return Numbers.divide(left, right);
             case STAR:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left * (double)right;
+                checkNumberOperands(expr, left, right);
+                return Numbers.multiply(left, right);
             default:
                 break;
         }
@@ -95,8 +199,8 @@ public class Interpreter implements Expr.Visitor<Object>, Statement.Visitor<Void
             case BANG:
                 return !isTruthy(right);
             case MINUS:
-                checkNumberOperand(expr.operator, right);
-                return -(double)right;
+                checkNumberOperand(expr, right);
+                return Numbers.negate(right);
             default:
                 break;
         }
@@ -124,47 +228,113 @@ public class Interpreter implements Expr.Visitor<Object>, Statement.Visitor<Void
         return evaluate(expr.elseBranch);
     }
 
-    private String stringify(Object object)
+    @Override
+    public Object visitVariableExpr(Expr.Variable expr)
     {
-        if(object == null)
+        return environment.get(expr.name);
+    }
+
+    @Override
+    public Object visitCallExpr(Expr.Call expr)
+    {
+        Object callee = evaluate(expr.callee);
+
+        List<Object> arguments = new ArrayList<>(expr.arguments.size());
+        for(Expr argument : expr.arguments)
         {
-            return "nil";
+            arguments.add(evaluate(argument));
+        }
+
+        if(!(callee instanceof LoxCallable))
+        {
+            throw new RunTimeError(expr.paren, "Can only call functions and classes.");
         }
 
-        String text = object.toString();
-        // Remove ".0" from integer-valued doubles
-        if(object instanceof Double)
+        LoxCallable function = (LoxCallable)callee;
+        if(arguments.size() != function.arity())
         {
-            if (text.endsWith(".0"))
+            throw new RunTimeError(expr.paren,
+                    "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+        }
+
+        budget.tick(expr.paren);
+        try
+        {
+            return function.call(this, arguments);
+        }
+        catch (NativeError error)
+        {
+            throw new RunTimeError(expr.paren, error.getMessage());
+        }
+    }
+
+    @Override
+    public Object visitAssignExpr(Expr.Assign expr)
+    {
+        Object value = evaluate(expr.value);
+        environment.assign(expr.name, value);
+        return value;
+    }
+
+    @Override
+    public Object visitLogicalExpr(Expr.Logical expr)
+    {
+        Object left = evaluate(expr.left);
+
+        if(expr.operator.type == TokenType.OR)
+        {
+            if(isTruthy(left))
             {
-                text = text.substring(0, text.length()-2);
+                return left;
+            }
+        }
+        else
+        {
+            if(!isTruthy(left))
+            {
+                return left;
             }
         }
 
-        return text;
+        return evaluate(expr.right);
     }
 
-    private void checkNumberOperand(Token operator, Object operand)
+    static String stringify(Object object)
     {
-        if(operand instanceof Double)
+        if(object == null)
+        {
+            return "nil";
+        }
+
+        if(Numbers.isNumber(object))
+        {
+            return Numbers.toString(object);
+        }
+
+        return object.toString();
+    }
+
+    private void checkNumberOperand(Expr.Unary expr, Object operand)
+    {
+        if(Numbers.isNumber(operand))
         {
             return;
         }
-        throw new RunTimeError(operator, "Operand must be a number.");
+        throw new RunTimeError(expr.operator, "Operand must be a number.");
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right)
+    private void checkNumberOperands(Expr.Binary expr, Object left, Object right)
     {
-        if(left instanceof Double && right instanceof Double)
+        if(Numbers.isNumber(left) && Numbers.isNumber(right))
         {
             return;
         }
-        throw new RunTimeError(operator, "Operands must be a number.");
+        throw new RunTimeError(expr.operator, "Operands must be a number.");
     }
 
     //False and 'nil' are considered false in lox
     //everything else is true
-    private Boolean isTruthy(Object object)
+    static Boolean isTruthy(Object object)
     {
         if(object == null)
         {
@@ -184,14 +354,33 @@ public class Interpreter implements Expr.Visitor<Object>, Statement.Visitor<Void
         return expr.accept(this);
     }
 
-    private void execute(Statement stmt)
+    void execute(Statement stmt)
     {
         stmt.accept(this);
     }
 
-    private Boolean isEqual(Object x, Object y)
+    void executeBlock(List<Statement> statements, Environment environment)
     {
-        if(x == null && y == null)
+        Environment previous = this.environment;
+        try
+        {
+            this.environment = environment;
+
+            for(Statement statement : statements)
+            {
+                execute(statement);
+            }
+        }
+        finally
+        {
+            this.environment = previous;
+        }
+    }
+
+    static Boolean isEqual(Object x, Object y)
+    {
+        // Also catches nil == nil and two uses of one interned string
+        if(x == y)
         {
             return true;
         }
@@ -201,6 +390,11 @@ public class Interpreter implements Expr.Visitor<Object>, Statement.Visitor<Void
             return false;
         }
 
+        if(Numbers.isNumber(x) && Numbers.isNumber(y))
+        {
+            return Numbers.equal(x, y);
+        }
+
         return x.equals(y);
     }
 
@@ -208,7 +402,7 @@ public class Interpreter implements Expr.Visitor<Object>, Statement.Visitor<Void
     public Void visitPrintStmt(Statement.Print stmt)
     {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        out.println(stringify(value));
         return null;
     }
 
@@ -218,4 +412,87 @@ public class Interpreter implements Expr.Visitor<Object>, Statement.Visitor<Void
         evaluate(stmt.expression);
         return null;
     }
+
+    @Override
+    public Void visitVarStmt(Statement.Var stmt)
+    {
+        Object value = null;
+        if(stmt.initializer != null)
+        {
+            value = evaluate(stmt.initializer);
+        }
+
+        environment.define(stmt.name.lexeme, value);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Statement.Block stmt)
+    {
+        executeBlock(stmt.statements, new Environment(environment));
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Statement.Function stmt)
+    {
+        environment.define(stmt.name.lexeme, new LoxFunction(stmt, environment));
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Statement.Return stmt)
+    {
+        Object value = null;
+        if(stmt.value != null)
+        {
+            value = evaluate(stmt.value);
+        }
+
+        throw new Return(value);
+    }
+
+    @Override
+    public Void visitIfStmt(Statement.If stmt)
+    {
+        if(isTruthy(evaluate(stmt.condition)))
+        {
+            execute(stmt.thenBranch);
+        }
+        else if(stmt.elseBranch != null)
+        {
+            execute(stmt.elseBranch);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Statement.Import stmt)
+    {
+        Module module = Module.load(stmt.path);
+        environment.defineAll(imports.scope(module, stmt.path, globals, scope -> executeBlock(module.statements, scope)));
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Statement.While stmt)
+    {
+        LoopTrace trace = LoopTrace.of(stmt);
+        while(isTruthy(evaluate(stmt.condition)))
+        {
+            execute(stmt.body);
+            budget.tick(stmt.keyword);
+
+            // Once the loop is hot, finish it compiled unless its variables fail the trace's entry check
+            if(trace != null && trace.isHot())
+            {
+                if(trace.run(environment, budget, out))
+                {
+                    return null;
+                }
+                trace = null;
+            }
+        }
+        return null;
+    }
 }
@@ -0,0 +1,268 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+* A script running with its own interpreter and globals, sharing nothing with other isolates.
+* Isolates only talk through messages: post copies the value into the target's inbox, a
+* lock-free queue any thread may add to. An isolate runs its script once and then calls its
+* onMessage(message) function for each message, one at a time, on a pool with a thread per core.
+* Between messages it holds no thread, so many isolates can share the pool.
+*
+* The program that starts isolates has a host isolate of its own, without a script; it
+* reads its inbox with take(), which blocks. Inside an isolate, the global 'parent' is the
+* isolate that started it.
+* */
+class Isolate
+{
+    private static final int BATCH = 64;
+    private static final ExecutorService pool = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), Isolate::newThread);
+    private static final AtomicInteger threads = new AtomicInteger();
+
+    // The inbox does not hold null, so nil is queued as this marker
+    private static final Object NIL = new Object();
+
+    private final String name;
+    private final Queue<Object> inbox = new ConcurrentLinkedQueue<>();
+
+    // Host isolates only: counts messages waiting for take()
+    private final Semaphore waiting;
+
+    // Script isolates only
+    private final ExecutionContext interpreter;
+    private final RunState state;
+    private final AtomicBoolean scheduled = new AtomicBoolean(true);
+    private LoxCallable onMessage;
+    private boolean failed;
+
+    // The host isolate for a program that is not itself running in an isolate
+    static Isolate host()
+    {
+        return new Isolate();
+    }
+
+    private Isolate()
+    {
+        this.name = "host";
+        this.waiting = new Semaphore(0);
+        this.interpreter = null;
+        this.state = null;
+    }
+
+    private Isolate(Path script, ExecutionContext starter)
+    {
+        this.name = script.toString();
+        this.waiting = null;
+        this.state = new RunState(RunState.current().err);
+        this.interpreter = starter.forIsolate(this);
+        this.interpreter.globals().define("parent", starter.isolate());
+    }
+
+    // Starts the script on the pool; messages posted before it finishes wait in the inbox
+    static Isolate start(Path script, ExecutionContext starter)
+    {
+        Isolate isolate = new Isolate(script, starter);
+        pool.execute(() -> RunState.with(isolate.state, isolate::initialize));
+        return isolate;
+    }
+
+    boolean isHost()
+    {
+        return interpreter == null;
+    }
+
+    void post(Object value)
+    {
+        inbox.offer(value == null ? NIL : copy(value, new IdentityHashMap<>()));
+        if(isHost())
+        {
+            waiting.release();
+        }
+        else if(scheduled.compareAndSet(false, true))
+        {
+            pool.execute(() -> RunState.with(state, this::drain));
+        }
+    }
+
+    // Blocks until a message reaches this host isolate
+    Object take() throws InterruptedException
+    {
+        waiting.acquire();
+        Object message = inbox.poll();
+        return message == NIL ? null : message;
+    }
+
+    private Void initialize()
+    {
+        try
+        {
+            List<Statement> statements = Lox.parse(Files.readString(Path.of(name), Charset.defaultCharset()), name);
+            if(statements == null)
+            {
+                failed = true;
+            }
+            else
+            {
+                interpreter.runScript(statements);
+                failed = state.hadRuntimeError;
+                Object handler = interpreter.globals().lookup("onMessage");
+                if(handler instanceof LoxCallable function && function.arity() == 1)
+                {
+                    onMessage = function;
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            state.err.println("Could not read isolate script " + name + ": " + e.getMessage());
+            failed = true;
+        }
+        catch (RuntimeException | Error error)
+        {
+            fail(error);
+        }
+        return drain();
+    }
+
+    // Handles a batch of messages, then gives the thread back and reschedules if more arrived.
+    // Whatever happens in the batch, the isolate is rescheduled, so later messages are not lost.
+    private Void drain()
+    {
+        try
+        {
+            for(int handled = 0; handled < BATCH; handled++)
+            {
+                Object message = inbox.poll();
+                if(message == null)
+                {
+                    break;
+                }
+                deliver(message == NIL ? null : message);
+            }
+        }
+        finally
+        {
+            scheduled.set(false);
+            if(!inbox.isEmpty() && scheduled.compareAndSet(false, true))
+            {
+                pool.execute(() -> RunState.with(state, this::drain));
+            }
+        }
+        return null;
+    }
+
+    // A failed isolate drops its messages; its error has already been reported
+    private void deliver(Object message)
+    {
+        if(failed)
+        {
+            return;
+        }
+
+        if(onMessage == null)
+        {
+            state.err.println("Isolate " + name + " got a message but defines no onMessage(message) function.");
+            failed = true;
+            return;
+        }
+
+        try
+        {
+            onMessage.call(interpreter, Collections.singletonList(message));
+        }
+        catch (RunTimeError error)
+        {
+            ErrorLogger.runTimeError(error);
+            failed = true;
+        }
+        catch (RuntimeException | Error error)
+        {
+            fail(error);
+        }
+    }
+
+    // For what Lox code cannot raise itself, such as a StackOverflowError from deep recursion
+    private void fail(Throwable error)
+    {
+        state.err.println("Isolate " + name + " failed: " + error);
+        failed = true;
+    }
+
+    // Values are copied so the receiver never shares a mutable object with the sender
+    private static Object copy(Object value, Map<Object, Object> copies)
+    {
+        if(value == null || value instanceof Boolean || value instanceof String || Numbers.isNumber(value)
+                || value instanceof NativeFunction || value instanceof Isolate)
+        {
+            return value;
+        }
+
+        Object copied = copies.get(value);
+        if(copied != null)
+        {
+            return copied;
+        }
+
+        if(value instanceof LoxList list)
+        {
+            LoxList copy = new LoxList();
+            copies.put(value, copy);
+            for(int i = 0; i < list.size(); i++)
+            {
+                copy.append(copy(list.get(i), copies));
+            }
+            return copy;
+        }
+
+        if(value instanceof LoxMap map)
+        {
+            LoxMap copy = new LoxMap();
+            copies.put(value, copy);
+            LoxList keys = map.keys();
+            for(int i = 0; i < keys.size(); i++)
+            {
+                Object key = keys.get(i);
+                copy.put(copy(key, copies), copy(map.get(key), copies));
+            }
+            return copy;
+        }
+
+        if(value instanceof LoxArray array)
+        {
+            LoxArray copy = new LoxArray(array.kind(), array.length());
+            copy.copyFrom(array, 0, 0, array.length());
+            copies.put(value, copy);
+            return copy;
+        }
+
+        throw new NativeError("Cannot send " + Interpreter.stringify(value) + " to another isolate.");
+    }
+
+    private static Thread newThread(Runnable task)
+    {
+        Thread thread = new Thread(task, "lox-isolate-" + threads.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<isolate " + name + ">";
+    }
+}
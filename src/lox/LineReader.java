@@ -0,0 +1,115 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+* Lazily reads the lines of a file through memory-mapped windows.
+* Only the window holding the current line is mapped, so memory stays constant
+* however large the file is. Each line's bytes go through one reused scratch
+* array into the returned String. Lines end at \n, with a trailing \r dropped.
+* */
+class LineReader
+{
+    private static final int WINDOW = 64 << 20;
+    private static final int MAX_SCRATCH = 64 << 10;
+
+    private final Path path;
+    private final long size;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long position;
+    private byte[] scratch = new byte[256];
+
+    LineReader(Path path) throws IOException
+    {
+        this.path = path;
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            this.size = channel.size();
+        }
+    }
+
+    // The next line, or null once the file is exhausted
+    String next() throws IOException
+    {
+        if(position >= size)
+        {
+            window = null;
+            return null;
+        }
+
+        if(window == null || position >= windowStart + window.limit())
+        {
+            map(position, WINDOW);
+        }
+
+        while(true)
+        {
+            int start = (int)(position - windowStart);
+            int limit = window.limit();
+            int end = start;
+            while(end < limit && window.get(end) != '\n')
+            {
+                end++;
+            }
+
+            // The line runs past this window: map again from its first byte, at least twice as long
+            if(end == limit && windowStart + limit < size)
+            {
+                long needed = Math.max(WINDOW, 2L * (limit - start));
+                if(needed > Integer.MAX_VALUE)
+                {
+                    throw new IOException("line at byte " + position + " is too long");
+                }
+                map(position, (int)needed);
+                continue;
+            }
+
+            position = windowStart + end + 1;
+
+            int length = end - start;
+            if(length > 0 && window.get(end - 1) == '\r')
+            {
+                length--;
+            }
+            return decode(start, length);
+        }
+    }
+
+    private void map(long start, int length) throws IOException
+    {
+        // The mapping stays valid after the channel is closed
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(length, size - start));
+            windowStart = start;
+        }
+    }
+
+    private String decode(int start, int length)
+    {
+        byte[] bytes = scratch;
+        if(length > bytes.length)
+        {
+            // One unusually long line should not pin a huge scratch array for the rest of the file
+            bytes = new byte[length];
+            if(length <= MAX_SCRATCH)
+            {
+                scratch = bytes;
+            }
+        }
+        window.get(start, bytes, 0, length);
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<lines " + path + ">";
+    }
+}
@@ -0,0 +1,42 @@
+package lox;
+
+/*
+* The source line of a statement or expression, for passes that report by line
+* rather than by token. It is the line of the statement's keyword or name if it keeps
+* one, otherwise of the token Interpreter reports a runtime error at; 0 if there is none.
+* */
+class Lines
+{
+    static int of(Statement statement)
+    {
+        return switch (statement)
+        {
+            case Statement.Print print -> print.keyword.line;
+            case Statement.Expression expression -> of(expression.expression);
+            case Statement.Var var -> var.name.line;
+            case Statement.Block block -> block.statements.isEmpty() ? 0 : of(block.statements.get(0));
+            case Statement.Function function -> function.name.line;
+            case Statement.Return ret -> ret.keyword.line;
+            case Statement.If ifStmt -> of(ifStmt.condition);
+            case Statement.While loop -> loop.keyword.line;
+            case Statement.Import module -> module.keyword.line;
+            default -> 0;
+        };
+    }
+
+    static int of(Expr expr)
+    {
+        return switch (expr)
+        {
+            case Expr.Binary binary -> binary.operator.line;
+            case Expr.Unary unary -> unary.operator.line;
+            case Expr.Logical logical -> logical.operator.line;
+            case Expr.Variable variable -> variable.name.line;
+            case Expr.Assign assign -> assign.name.line;
+            case Expr.Call call -> call.paren.line;
+            case Expr.Grouping grouping -> of(grouping.expression);
+            case Expr.Conditional conditional -> of(conditional.expr);
+            default -> 0;
+        };
+    }
+}
@@ -0,0 +1,116 @@
+package lox;
+
+import java.io.PrintStream;
+
+/*
+* Per-loop state for the tracing tier. The interpreter counts a while loop's
+* iterations, and once it has run HOT iterations the loop is compiled by
+* TraceCompiler, once, and finished in compiled form from the next iteration on.
+* Later executions of the same loop enter the compiled form after their first iteration.
+* Each entry checks that every variable the loop uses from outside holds a number and,
+* if the loop assigns it, is not frozen by a parallel call. Those variables are copied into
+* slots on entry and written back on exit, so once the run has spawned a task, which could
+* read or write them meanwhile, each of them must also live in a frozen scope.
+* If the check fails the loop stays in the tree walker for that execution, which is always correct.
+* */
+class LoopTrace
+{
+    static boolean enabled = true;
+    private static final int HOT = 1000;
+
+    private final Statement.While loop;
+    private int iterations;
+    private boolean attempted;
+    // Null until compiled, and for good if the loop cannot be compiled
+    private TraceCompiler.Loop compiled;
+
+    private LoopTrace(Statement.While loop)
+    {
+        this.loop = loop;
+    }
+
+    // Null when tracing is off; the trace is shared by every execution of the loop, on any thread
+    static LoopTrace of(Statement.While loop)
+    {
+        if(!enabled)
+        {
+            return null;
+        }
+        LoopTrace trace = loop.trace;
+        if(trace == null)
+        {
+            trace = new LoopTrace(loop);
+            loop.trace = trace;
+        }
+        return trace;
+    }
+
+    // Called after each iteration; racing threads only make the count approximate
+    boolean isHot()
+    {
+        if(iterations < HOT)
+        {
+            iterations++;
+            return false;
+        }
+        return true;
+    }
+
+    // Runs the rest of the loop compiled; returns false if it has to stay in the tree walker
+    boolean run(Environment environment, Budget budget, PrintStream out)
+    {
+        TraceCompiler.Loop trace = compile();
+        if(trace == null)
+        {
+            return false;
+        }
+
+        TraceCompiler.Frame frame = new TraceCompiler.Frame(trace.slots, budget, out);
+        Environment[] holders = new Environment[trace.free.size()];
+        boolean shared = holders.length > 0 && environment.hasTasks();
+        for(int i = 0; i < holders.length; i++)
+        {
+            TraceCompiler.Free variable = trace.free.get(i);
+            Environment holder = environment.holder(variable.name.lexeme);
+            if(holder == null || (variable.assigned && holder.isFrozen()) || (shared && !holder.isFrozen()))
+            {
+                return false;
+            }
+
+            Object value = holder.get(variable.name);
+            if(!Numbers.isNumber(value))
+            {
+                return false;
+            }
+            frame.slots[variable.slot] = Numbers.toDouble(value);
+            holders[i] = holder;
+        }
+
+        try
+        {
+            trace.body.run(frame);
+        }
+        finally
+        {
+            for(int i = 0; i < holders.length; i++)
+            {
+                TraceCompiler.Free variable = trace.free.get(i);
+                if(variable.assigned)
+                {
+                    holders[i].assign(variable.name, TraceCompiler.box(frame.slots[variable.slot]));
+                }
+            }
+        }
+        return true;
+    }
+
+    private synchronized TraceCompiler.Loop compile()
+    {
+        if(!attempted)
+        {
+            compiled = TraceCompiler.compile(loop);
+            attempted = true;
+        }
+        return compiled;
+    }
+}
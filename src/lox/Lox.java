@@ -1,25 +1,169 @@
 package lox;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 
 public class Lox {
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
+    static boolean strict = false;
+    static long maxSteps = 0;
+    static long timeoutMillis = 0;
+    static boolean flat = false;
+    static AllocationProfile allocationProfile;
+    static Coverage coverage;
 
-    private static final Interpreter interpreter = new Interpreter();
+    private static Interpreter interpreter = new Interpreter();
+    private static FlatInterpreter flatInterpreter;
 
     public static void main(String[] args) throws IOException
     {
-        if(args.length > 1)
+        int options = 0;
+        for(; options < args.length; options++)
         {
-            System.out.println("Usage: jlox [args]");
-            System.exit(64);
+            if(args[options].equals("--strict"))
+            {
+                strict = true;
+            }
+            else if(args[options].equals("--type-report"))
+            {
+                TypeInference.report = true;
+            }
+            else if(args[options].equals("--no-trace"))
+            {
+                LoopTrace.enabled = false;
+            }
+            else if(args[options].equals("--flat"))
+            {
+                flat = true;
+            }
+            else if(args[options].equals("--alloc-profile") && options + 1 < args.length)
+            {
+                allocationProfile = new AllocationProfile(Paths.get(args[++options]));
+            }
+            else if(args[options].equals("--coverage") && options + 1 < args.length)
+            {
+                coverage = new Coverage(Paths.get(args[++options]));
+                // Function bodies are parsed up front so uncalled functions are reported too
+                strict = true;
+                // A compiled loop runs its body without CoverageInterpreter.execute, so loops stay in the tree walker
+                LoopTrace.enabled = false;
+            }
+            else if(args[options].equals("--max-steps") && options + 1 < args.length)
+            {
+                maxSteps = Long.parseLong(args[++options]);
+            }
+            else if(args[options].equals("--timeout-ms") && options + 1 < args.length)
+            {
+                timeoutMillis = Long.parseLong(args[++options]);
+            }
+            else
+            {
+                break;
+            }
+        }
+        args = Arrays.copyOfRange(args, options, args.length);
+
+        // FlatInterpreter has no profiling or coverage hooks
+        if((allocationProfile != null && coverage != null) || (flat && (allocationProfile != null || coverage != null)))
+        {
+            usage();
+        }
+
+        if(allocationProfile != null || coverage != null)
+        {
+            if(allocationProfile != null)
+            {
+                allocationProfile.start();
+            }
+            else
+            {
+                coverage.start();
+            }
+            interpreter = newInterpreter(System.out, Natives.globals());
+        }
+
+        // The server, its clients and --each-line always run scripts in the tree walker
+        if(flat && args.length > 0
+                && (args[0].equals("--server") || args[0].equals("--connect") || args[0].equals("--each-line")))
+        {
+            usage();
+        }
+
+        if(flat)
+        {
+            flatInterpreter = new FlatInterpreter(System.out);
+        }
+
+        if(args.length > 0 && args[0].equals("--server"))
+        {
+            if(args.length != 2)
+            {
+                usage();
+            }
+            new LoxServer(Paths.get(args[1])).serve();
+        }
+        else if(args.length > 0 && args[0].equals("--connect"))
+        {
+            if(args.length != 3)
+            {
+                usage();
+            }
+            System.exit(LoxClient.run(Paths.get(args[1]), Paths.get(args[2])));
+        }
+        else if(args.length > 0 && args[0].equals("--save-snapshot"))
+        {
+            if(args.length != 3)
+            {
+                usage();
+            }
+            saveSnapshot(Paths.get(args[1]), args[2]);
+        }
+        else if(args.length > 0 && args[0].equals("--snapshot"))
+        {
+            if(args.length < 2 || args.length > 3)
+            {
+                usage();
+            }
+            Environment globals = Snapshot.read(Paths.get(args[1]));
+            if(flat)
+            {
+                flatInterpreter = new FlatInterpreter(System.out, globals);
+            }
+            else
+            {
+                interpreter = newInterpreter(System.out, globals);
+            }
+            if(args.length == 3)
+            {
+                runFile(args[2]);
+            }
+            else
+            {
+                runPrompt();
+            }
+        }
+        else if(args.length > 0 && args[0].equals("--each-line"))
+        {
+            if(args.length != 2)
+            {
+                usage();
+            }
+            runEachLine(args[1]);
+        }
+        else if(args.length > 1)
+        {
+            usage();
         }
         else if(args.length == 1)
         {
@@ -31,24 +175,35 @@ public class Lox {
         }
     }
 
+    private static void usage()
+    {
+        System.out.println("Usage: jlox [--strict] [--type-report] [--no-trace]");
+        System.out.println("            [--flat | --alloc-profile <file> | --coverage <lcov file>] [--max-steps <n>] [--timeout-ms <ms>] [script]");
+        System.out.println("       jlox --server <socket>");
+        System.out.println("       jlox --connect <socket> <script>");
+        System.out.println("       jlox --save-snapshot <snapshot> <prelude>");
+        System.out.println("       jlox --snapshot <snapshot> [script]");
+        System.out.println("       jlox --each-line <script> < input");
+        System.exit(64);
+    }
 
     private static void runFile(String path)  throws  IOException
     {
         try
         {
             byte[] bytes  = Files.readAllBytes(Paths.get(path));
-            run(new String(bytes, Charset.defaultCharset()));
+            run(new String(bytes, Charset.defaultCharset()), path);
 
-            if(hadError)
+            if(TypeInference.report)
             {
-                System.exit(64);
+                TypeInference.printReport(System.err);
             }
 
-            if(hadRuntimeError)
+            int code = exitCode();
+            if(code != 0)
             {
-                System.exit(70);
+                System.exit(code);
             }
-
         }
         catch (IOException e)
         {
@@ -56,6 +211,57 @@ public class Lox {
         }
     }
 
+    // Runs the prelude once and saves the globals it defines for --snapshot
+    private static void saveSnapshot(Path snapshot, String prelude) throws IOException
+    {
+        runFile(prelude);
+        try
+        {
+            Snapshot.write(snapshot, flat ? flatInterpreter.globals() : interpreter.globals());
+        }
+        catch (IOException e)
+        {
+            System.err.println("Could not save snapshot " + snapshot + ": " + e.getMessage());
+            System.exit(74);
+        }
+    }
+
+    // Parses the script once, then runs it for every line of stdin with the line bound to 'line'.
+    // Input is read through a large buffer and output is flushed only when the buffer fills.
+    private static void runEachLine(String path) throws IOException
+    {
+        byte[] bytes = Files.readAllBytes(Paths.get(path));
+        List<Statement> statements = parse(new String(bytes, Charset.defaultCharset()), path);
+        if(statements == null)
+        {
+            System.exit(64);
+        }
+
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(FileDescriptor.in), Charset.defaultCharset()), 1 << 20);
+        PrintStream out = new PrintStream(
+                new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+        Interpreter lineInterpreter = newInterpreter(out, Natives.globals());
+        lineInterpreter.setBudget(newBudget());
+
+        String line;
+        while((line = reader.readLine()) != null)
+        {
+            lineInterpreter.globals.define("line", line);
+            lineInterpreter.interpret(statements);
+            if(RunState.current().hadRuntimeError)
+            {
+                break;
+            }
+        }
+
+        out.flush();
+        if(RunState.current().hadRuntimeError)
+        {
+            System.exit(70);
+        }
+    }
+
     private static void runPrompt() throws  IOException
     {
         InputStreamReader input = new InputStreamReader(System.in);
@@ -66,24 +272,96 @@ public class Lox {
             System.out.println("> ");
             String line = reader.readLine();
             if(line == null) {break;}
-            run(line);
-            hadError = false;
+            run(line, null);
+            RunState.current().hadError = false;
         }
     }
 
-    private static void run(String source)
+    private static void run(String source, String path)
     {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
+        List<Statement> statements = parse(source, path);
 
-        Parser parser = new Parser(tokens);
-        List<Statement> statements = parser.parse();
+        if(statements == null)
+        {
+            return;
+        }
 
-        if(hadError)
+        if(flat)
         {
+            // The tree becomes garbage once encoded. Function declarations keep their name, parameters
+            // and body, which is encoded on its first call and until then only holds its place in the source.
+            FlatAst program = FlatAst.encode(statements);
+            statements = null;
+            flatInterpreter.setBudget(newBudget());
+            flatInterpreter.interpret(program);
             return;
         }
 
+        interpreter.setBudget(newBudget());
         interpreter.interpret(statements);
     }
+
+    // A profiling interpreter under --alloc-profile, a counting one under --coverage, otherwise a plain one
+    static Interpreter newInterpreter(PrintStream out, Environment globals)
+    {
+        if(allocationProfile != null)
+        {
+            return new ProfilingInterpreter(out, globals, allocationProfile);
+        }
+        if(coverage != null)
+        {
+            return new CoverageInterpreter(out, globals, coverage);
+        }
+        return new Interpreter(out, globals);
+    }
+
+    // Limits for one run from --max-steps and --timeout-ms; the deadline starts now
+    static Budget newBudget()
+    {
+        return new Budget(maxSteps, timeoutMillis);
+    }
+
+    // Returns null if the source had syntax errors, which have already been reported
+    static List<Statement> parse(String source)
+    {
+        return parse(source, null);
+    }
+
+    // A script read from path is registered for --coverage; REPL input has no path and is not
+    static List<Statement> parse(String source, String path)
+    {
+        Scanner scanner = new Scanner(source);
+        scanner.scanTokens();
+
+        Parser parser = new Parser(scanner, strict);
+        List<Statement> statements = parser.parse();
+
+        if(RunState.current().hadError)
+        {
+            return null;
+        }
+
+        TypeInference.analyze(statements);
+        if(coverage != null && path != null)
+        {
+            coverage.register(path, statements);
+        }
+        return statements;
+    }
+
+    // Process exit code for the last run: 64 for syntax errors, 70 for runtime errors
+    static int exitCode()
+    {
+        if(RunState.current().hadError)
+        {
+            return 64;
+        }
+
+        if(RunState.current().hadRuntimeError)
+        {
+            return 70;
+        }
+
+        return 0;
+    }
 }
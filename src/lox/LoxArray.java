@@ -0,0 +1,272 @@
+package lox;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+/*
+* Fixed length array of float64 or int32 values held outside the Java heap,
+* so large numeric data costs the garbage collector one object per array.
+* Elements are little-endian, which also lets a binary file of samples be
+* mapped in place as a read-only array.
+* Arrays that are not mapped are direct buffers: together they are limited by
+* -XX:MaxDirectMemorySize, which defaults to the maximum heap size, and their memory
+* is only given back once the collector finds the array unreachable.
+* */
+class LoxArray implements Serializable
+{
+    enum Kind
+    {
+        FLOAT64("Float64Array", Double.BYTES),
+        INT32("Int32Array", Integer.BYTES);
+
+        final String typeName;
+        final int bytes;
+
+        Kind(String typeName, int bytes)
+        {
+            this.typeName = typeName;
+            this.bytes = bytes;
+        }
+    }
+
+    private final Kind kind;
+    private transient int length;
+    private transient boolean readOnly;
+    private transient DoubleBuffer doubles;
+    private transient IntBuffer ints;
+
+    LoxArray(Kind kind, int length)
+    {
+        this.kind = kind;
+        attach(allocate(kind, length), false);
+    }
+
+    private LoxArray(Kind kind, ByteBuffer buffer, boolean readOnly)
+    {
+        this.kind = kind;
+        attach(buffer, readOnly);
+    }
+
+    // Maps the whole file; the data is paged in on access rather than read up front
+    static LoxArray map(Kind kind, Path path) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            if(size % kind.bytes != 0 || size / kind.bytes > maxLength(kind))
+            {
+                throw new IOException("file size " + size + " is not a whole number of "
+                        + kind.typeName + " elements within the array size limit");
+            }
+            return new LoxArray(kind, channel.map(FileChannel.MapMode.READ_ONLY, 0, size), true);
+        }
+    }
+
+    static int maxLength(Kind kind)
+    {
+        return Integer.MAX_VALUE / kind.bytes;
+    }
+
+    private static ByteBuffer allocate(Kind kind, int length)
+    {
+        try
+        {
+            return ByteBuffer.allocateDirect(length * kind.bytes);
+        }
+        catch (OutOfMemoryError e)
+        {
+            throw new NativeError("Not enough memory for a " + kind.typeName + " of " + length + " elements: arrays"
+                    + " may use " + (directMemoryLimit() >> 20) + " MiB in all, set with -XX:MaxDirectMemorySize.");
+        }
+    }
+
+    // An unset MaxDirectMemorySize is 0 and means the maximum heap size
+    private static long directMemoryLimit()
+    {
+        HotSpotDiagnosticMXBean diagnostics = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+        long limit = Long.parseLong(diagnostics.getVMOption("MaxDirectMemorySize").getValue());
+        return limit > 0 ? limit : Runtime.getRuntime().maxMemory();
+    }
+
+    private void attach(ByteBuffer buffer, boolean readOnly)
+    {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.length = buffer.capacity() / kind.bytes;
+        this.readOnly = readOnly;
+        if(kind == Kind.FLOAT64)
+        {
+            doubles = buffer.asDoubleBuffer();
+        }
+        else
+        {
+            ints = buffer.asIntBuffer();
+        }
+    }
+
+    Kind kind()
+    {
+        return kind;
+    }
+
+    int length()
+    {
+        return length;
+    }
+
+    boolean isReadOnly()
+    {
+        return readOnly;
+    }
+
+    Object get(int index)
+    {
+        if(kind == Kind.FLOAT64)
+        {
+            return doubles.get(index);
+        }
+        return (long)ints.get(index);
+    }
+
+    // value has already been checked with accepts
+    void set(int index, Object value)
+    {
+        if(kind == Kind.FLOAT64)
+        {
+            doubles.put(index, Numbers.toDouble(value));
+        }
+        else
+        {
+            ints.put(index, (int)Numbers.toDouble(value));
+        }
+    }
+
+    boolean accepts(Object value)
+    {
+        if(kind == Kind.FLOAT64)
+        {
+            return Numbers.isNumber(value);
+        }
+        // Integral doubles such as the result of 0.5 * 4 are accepted too
+        return Numbers.isNumber(value) && Numbers.toDouble(value) == (int)Numbers.toDouble(value);
+    }
+
+    void fill(Object value)
+    {
+        if(kind == Kind.FLOAT64)
+        {
+            double element = Numbers.toDouble(value);
+            for(int i = 0; i < length; i++)
+            {
+                doubles.put(i, element);
+            }
+        }
+        else
+        {
+            int element = (int)Numbers.toDouble(value);
+            for(int i = 0; i < length; i++)
+            {
+                ints.put(i, element);
+            }
+        }
+    }
+
+    // Both arrays have this kind and the ranges are in bounds
+    void copyFrom(LoxArray source, int sourceStart, int start, int count)
+    {
+        if(kind == Kind.FLOAT64)
+        {
+            doubles.put(start, source.doubles, sourceStart, count);
+        }
+        else
+        {
+            ints.put(start, source.ints, sourceStart, count);
+        }
+    }
+
+    Object sum()
+    {
+        if(kind == Kind.FLOAT64)
+        {
+            double total = 0;
+            for(int i = 0; i < length; i++)
+            {
+                total += doubles.get(i);
+            }
+            return total;
+        }
+
+        // At most 2^29 elements of magnitude 2^31, so the total cannot overflow a long
+        long total = 0;
+        for(int i = 0; i < length; i++)
+        {
+            total += ints.get(i);
+        }
+        return Numbers.integer(total);
+    }
+
+    // Snapshots hold a copy of the contents; a mapped array comes back as an ordinary writable one
+    private void writeObject(ObjectOutputStream out) throws IOException
+    {
+        out.defaultWriteObject();
+        out.writeInt(length);
+        for(int i = 0; i < length; i++)
+        {
+            if(kind == Kind.FLOAT64)
+            {
+                out.writeDouble(doubles.get(i));
+            }
+            else
+            {
+                out.writeInt(ints.get(i));
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        int count = in.readInt();
+        if(count < 0 || count > maxLength(kind))
+        {
+            throw new IOException("Bad " + kind.typeName + " length: " + count);
+        }
+
+        try
+        {
+            attach(allocate(kind, count), false);
+        }
+        catch (NativeError e)
+        {
+            throw new IOException(e.getMessage());
+        }
+        for(int i = 0; i < count; i++)
+        {
+            if(kind == Kind.FLOAT64)
+            {
+                doubles.put(i, in.readDouble());
+            }
+            else
+            {
+                ints.put(i, in.readInt());
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<" + kind.typeName + " " + length + ">";
+    }
+}
@@ -0,0 +1,9 @@
+package lox;
+
+import java.util.List;
+
+interface LoxCallable
+{
+    int arity();
+    Object call(ExecutionContext context, List<Object> arguments);
+}
@@ -0,0 +1,100 @@
+package lox;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+* Bounded FIFO channel between tasks. send blocks while the channel is full and
+* receive blocks while it is empty. Once closed, receive drains what is left and
+* then returns nil. It uses a ReentrantLock rather than synchronized so a waiting
+* virtual thread releases its carrier thread.
+* */
+class LoxChannel
+{
+    // ArrayDeque does not hold null, so nil is queued as this marker
+    private static final Object NIL = new Object();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final ArrayDeque<Object> buffer;
+    private final int capacity;
+    private boolean closed;
+
+    LoxChannel(int capacity)
+    {
+        this.capacity = capacity;
+        this.buffer = new ArrayDeque<>(Math.min(capacity, 1024));
+    }
+
+    void send(Object value) throws InterruptedException
+    {
+        lock.lockInterruptibly();
+        try
+        {
+            while(buffer.size() == capacity && !closed)
+            {
+                notFull.await();
+            }
+
+            if(closed)
+            {
+                throw new NativeError("Send on a closed channel.");
+            }
+
+            buffer.addLast(value == null ? NIL : value);
+            notEmpty.signal();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    Object receive() throws InterruptedException
+    {
+        lock.lockInterruptibly();
+        try
+        {
+            while(buffer.isEmpty() && !closed)
+            {
+                notEmpty.await();
+            }
+
+            if(buffer.isEmpty())
+            {
+                return null;
+            }
+
+            Object value = buffer.removeFirst();
+            notFull.signal();
+            return value == NIL ? null : value;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    void close()
+    {
+        lock.lock();
+        try
+        {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<channel>";
+    }
+}
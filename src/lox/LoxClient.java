@@ -0,0 +1,56 @@
+package lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/*
+* Thin client for LoxServer: sends the script path, then relays the script's output and returns its exit code.
+* */
+class LoxClient
+{
+    static int run(Path socket, Path script) throws IOException
+    {
+        try(SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket)))
+        {
+            DataOutputStream request = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            DataInputStream response = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+
+            request.writeUTF(script.toAbsolutePath().toString());
+            request.flush();
+
+            byte[] buffer = new byte[8192];
+            while(true)
+            {
+                byte tag = response.readByte();
+                int length = response.readInt();
+
+                if(tag == LoxServer.EXIT)
+                {
+                    System.out.flush();
+                    return length;
+                }
+
+                PrintStream target = tag == LoxServer.STDERR ? System.err : System.out;
+                while(length > 0)
+                {
+                    int read = response.read(buffer, 0, Math.min(length, buffer.length));
+                    if(read < 0)
+                    {
+                        throw new IOException("Server closed the connection.");
+                    }
+                    target.write(buffer, 0, read);
+                    length -= read;
+                }
+                target.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package lox;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+import static lox.TokenType.EOF;
+
+/*
+* A source file being edited, kept parsed so an edit only rescans and reparses the
+* top-level declarations it can have changed, for editors and other long-lived tools.
+* The text is split into one span per top-level declaration, from its first token up to
+* the next declaration's first token. An edit is reparsed from the declaration before the
+* first span it touches, since that one may have looked a token ahead, and stops once a
+* declaration starts where an untouched old one now starts: the tokens from there on are
+* the same, so the old declarations and their syntax errors are kept, moved by the edit.
+* Function bodies are always parsed up front, as in strict mode. Reused statements keep
+* the lines they were parsed with; only their diagnostics are moved to the current lines.
+* */
+class LoxDocument
+{
+    // How far past a token the scanner may look, so an edit there can change the token
+    private static final int SCAN_LOOKAHEAD = 2;
+
+    // One top-level declaration's span and what parsing it gave
+    private static class Decl
+    {
+        int from;
+        int line;
+        final int parsedLine;
+        // null if it had a syntax error
+        final Statement statement;
+        // Errors in its span, on the lines of when it was parsed
+        final List<Diagnostic> diagnostics;
+
+        Decl(int from, int line, Statement statement, List<Diagnostic> diagnostics)
+        {
+            this.from = from;
+            this.line = line;
+            this.parsedLine = line;
+            this.statement = statement;
+            this.diagnostics = diagnostics;
+        }
+    }
+
+    // Collects syntax errors instead of printing them, and interns this document's names
+    private final RunState state = new RunState(System.err);
+    private String text;
+    private final List<Decl> decls = new ArrayList<>();
+    // Errors in a text with no declarations, such as an unterminated comment
+    private List<Diagnostic> unattached = List.of();
+
+    LoxDocument(String text)
+    {
+        this.text = text;
+        reparse(0, Integer.MAX_VALUE, 0, 0);
+    }
+
+    String text()
+    {
+        return text;
+    }
+
+    // Replaces removed characters at offset with inserted
+    void edit(int offset, int removed, String inserted)
+    {
+        if(offset < 0 || removed < 0 || offset + removed > text.length())
+        {
+            throw new IndexOutOfBoundsException("Edit " + offset + "+" + removed + " outside " + text.length());
+        }
+
+        int lineDelta = newlines(inserted, 0, inserted.length()) - newlines(text, offset, offset + removed);
+        text = text.substring(0, offset) + inserted + text.substring(offset + removed);
+
+        int first = firstSpanEndingAtOrAfter(offset - SCAN_LOOKAHEAD);
+        reparse(Math.max(0, first - 1), offset + removed, inserted.length() - removed, lineDelta);
+    }
+
+    // The top-level statements, without those that had syntax errors
+    List<Statement> statements()
+    {
+        List<Statement> statements = new ArrayList<>(decls.size());
+        for(Decl decl : decls)
+        {
+            if(decl.statement != null)
+            {
+                statements.add(decl.statement);
+            }
+        }
+        return statements;
+    }
+
+    // Syntax errors in the order a full parse reports them, which scans the whole text before parsing
+    List<Diagnostic> diagnostics()
+    {
+        List<Diagnostic> diagnostics = new ArrayList<>(unattached);
+        collect(diagnostics, true);
+        collect(diagnostics, false);
+        return diagnostics;
+    }
+
+    private void collect(List<Diagnostic> diagnostics, boolean scanning)
+    {
+        for(Decl decl : decls)
+        {
+            int shift = decl.line - decl.parsedLine;
+            for(Diagnostic diagnostic : decl.diagnostics)
+            {
+                if(diagnostic.isScanError() == scanning)
+                {
+                    diagnostics.add(shift == 0 ? diagnostic : diagnostic.atLine(diagnostic.line() + shift));
+                }
+            }
+        }
+    }
+
+    private int firstSpanEndingAtOrAfter(int offset)
+    {
+        // A span ends where the next one starts, so find the first start at or after offset
+        int low = 1;
+        int high = decls.size();
+        while(low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if(decls.get(middle).from >= offset)
+            {
+                high = middle;
+            }
+            else
+            {
+                low = middle + 1;
+            }
+        }
+        return low - 1;
+    }
+
+    // Parses the new text from declaration index first, and keeps old declarations that
+    // started at or after unchangedFrom once one is reached. They have moved by delta
+    // characters and lineDelta lines.
+    private void reparse(int first, int unchangedFrom, int delta, int lineDelta)
+    {
+        RunState.with(state, () ->
+        {
+            try
+            {
+                parseFrom(first, unchangedFrom, delta, lineDelta);
+            }
+            finally
+            {
+                state.diagnostics = null;
+            }
+            return null;
+        });
+    }
+
+    private void parseFrom(int first, int unchangedFrom, int delta, int lineDelta)
+    {
+        int from = first < decls.size() ? decls.get(first).from : 0;
+        int line = first < decls.size() ? decls.get(first).line : 1;
+
+        Scanner scanner = new Scanner(text, from, line);
+        Tokens tokens = new Tokens(scanner);
+        Parser parser = new Parser(tokens, 0, true);
+
+        List<Decl> parsed = new ArrayList<>();
+        int reuse = first;
+        while(true)
+        {
+            // Errors before the next token are in the previous declaration's span
+            List<Diagnostic> diagnostics = parsed.isEmpty() ? new ArrayList<>() : parsed.get(parsed.size() - 1).diagnostics;
+            state.diagnostics = diagnostics;
+            int position = parser.position();
+            Token next = tokens.get(position);
+
+            if(!parsed.isEmpty())
+            {
+                Decl previous = parsed.get(parsed.size() - 1);
+                from = next.type == EOF ? text.length() : scanner.offset(position);
+                line = previous.line + newlines(text, previous.from, from);
+            }
+
+            if(next.type == EOF)
+            {
+                unattached = parsed.isEmpty() ? diagnostics : List.of();
+                replace(first, decls.size(), parsed);
+                return;
+            }
+
+            if(!parsed.isEmpty())
+            {
+                while(reuse < decls.size()
+                        && (decls.get(reuse).from < unchangedFrom || decls.get(reuse).from + delta < from))
+                {
+                    reuse++;
+                }
+
+                if(reuse < decls.size() && decls.get(reuse).from + delta == from)
+                {
+                    for(int i = reuse; i < decls.size(); i++)
+                    {
+                        Decl decl = decls.get(i);
+                        decl.from += delta;
+                        decl.line += lineDelta;
+                    }
+                    replace(first, reuse, parsed);
+                    return;
+                }
+            }
+
+            if(!parsed.isEmpty())
+            {
+                diagnostics = new ArrayList<>();
+                state.diagnostics = diagnostics;
+            }
+            Statement statement = parser.next();
+            parsed.add(new Decl(from, line, statement, diagnostics));
+        }
+    }
+
+    private void replace(int from, int to, List<Decl> parsed)
+    {
+        decls.subList(from, to).clear();
+        decls.addAll(from, parsed);
+    }
+
+    private static int newlines(String text, int from, int to)
+    {
+        int count = 0;
+        for(int i = from; i < to; i++)
+        {
+            if(text.charAt(i) == '\n')
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // The scanner's tokens, scanned as the parser reaches them; past the end every token is EOF
+    private static class Tokens extends AbstractList<Token>
+    {
+        private final Scanner scanner;
+        private final List<Token> scanned;
+
+        Tokens(Scanner scanner)
+        {
+            this.scanner = scanner;
+            this.scanned = scanner.tokens();
+        }
+
+        @Override
+        public Token get(int index)
+        {
+            while(index >= scanned.size())
+            {
+                if(!scanned.isEmpty() && scanned.get(scanned.size() - 1).type == EOF)
+                {
+                    return scanned.get(scanned.size() - 1);
+                }
+                scanner.scanNext();
+            }
+            return scanned.get(index);
+        }
+
+        @Override
+        public int size()
+        {
+            return scanned.size();
+        }
+    }
+}
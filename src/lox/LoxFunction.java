@@ -0,0 +1,63 @@
+package lox;
+
+import java.io.Serializable;
+import java.util.List;
+
+class LoxFunction implements LoxCallable, Serializable
+{
+    private final Token name;
+    private final List<Token> params;
+    private final FunctionBody body;
+    private final Environment closure;
+
+    LoxFunction(Statement.Function declaration, Environment closure)
+    {
+        this(declaration.name, declaration.params, declaration.body, closure);
+    }
+
+    LoxFunction(Token name, List<Token> params, FunctionBody body, Environment closure)
+    {
+        this.name = name;
+        this.params = params;
+        this.body = body;
+        this.closure = closure;
+    }
+
+    Environment closure()
+    {
+        return closure;
+    }
+
+    @Override
+    public int arity()
+    {
+        return params.size();
+    }
+
+    // The body runs on the evaluator that calls the function, whichever one declared it
+    @Override
+    public Object call(ExecutionContext context, List<Object> arguments)
+    {
+        Environment environment = new Environment(closure);
+        for(int i = 0; i < params.size(); i++)
+        {
+            environment.define(params.get(i).lexeme, arguments.get(i));
+        }
+
+        try
+        {
+            context.executeBody(body, environment);
+        }
+        catch (Return returnValue)
+        {
+            return returnValue.value;
+        }
+        return null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<fn " + name.lexeme + ">";
+    }
+}
@@ -0,0 +1,213 @@
+package lox;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/*
+* Growable list whose backing array depends on what has been stored in it.
+* A list starts EMPTY and picks long[], double[] or String[] storage from its first element,
+* so numeric lists hold unboxed values. Storing something the current strategy cannot hold
+* moves the elements to the next more general one: LONG widens to DOUBLE, and anything
+* mixed ends up as OBJECT. Lists never move back to a narrower strategy.
+* */
+class LoxList implements Serializable
+{
+    private static final int INITIAL_CAPACITY = 8;
+
+    private enum Strategy { EMPTY, LONG, DOUBLE, STRING, OBJECT }
+
+    private Strategy strategy = Strategy.EMPTY;
+    private long[] longs;
+    private double[] doubles;
+    private String[] strings;
+    private Object[] objects;
+    private int size;
+
+    int size()
+    {
+        return size;
+    }
+
+    Object get(int index)
+    {
+        switch (strategy)
+        {
+            case LONG:
+                return longs[index];
+            case DOUBLE:
+                return doubles[index];
+            case STRING:
+                return strings[index];
+            case OBJECT:
+                return objects[index];
+            default:
+                throw new IndexOutOfBoundsException(index);
+        }
+    }
+
+    void set(int index, Object value)
+    {
+        generalizeFor(value);
+
+        switch (strategy)
+        {
+            case LONG:
+                longs[index] = (long)value;
+                break;
+            case DOUBLE:
+                doubles[index] = Numbers.toDouble(value);
+                break;
+            case STRING:
+                strings[index] = (String)value;
+                break;
+            default:
+                objects[index] = value;
+                break;
+        }
+    }
+
+    void append(Object value)
+    {
+        generalizeFor(value);
+        ensureCapacity(size + 1);
+        size++;
+        set(size - 1, value);
+    }
+
+    private void generalizeFor(Object value)
+    {
+        switch (strategy)
+        {
+            case EMPTY:
+                if(value instanceof Long)
+                {
+                    strategy = Strategy.LONG;
+                    longs = new long[INITIAL_CAPACITY];
+                }
+                else if(value instanceof Double)
+                {
+                    strategy = Strategy.DOUBLE;
+                    doubles = new double[INITIAL_CAPACITY];
+                }
+                else if(value instanceof String)
+                {
+                    strategy = Strategy.STRING;
+                    strings = new String[INITIAL_CAPACITY];
+                }
+                else
+                {
+                    strategy = Strategy.OBJECT;
+                    objects = new Object[INITIAL_CAPACITY];
+                }
+                break;
+            case LONG:
+                if(value instanceof Double)
+                {
+                    toDoubles();
+                }
+                else if(!(value instanceof Long))
+                {
+                    toObjects();
+                }
+                break;
+            case DOUBLE:
+                if(!Numbers.isNumber(value))
+                {
+                    toObjects();
+                }
+                break;
+            case STRING:
+                if(!(value instanceof String))
+                {
+                    toObjects();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Longs in a list are within 2^53, so widening them is exact
+    private void toDoubles()
+    {
+        doubles = new double[longs.length];
+        for(int i = 0; i < size; i++)
+        {
+            doubles[i] = longs[i];
+        }
+        longs = null;
+        strategy = Strategy.DOUBLE;
+    }
+
+    private void toObjects()
+    {
+        Object[] boxed = new Object[capacity()];
+        for(int i = 0; i < size; i++)
+        {
+            boxed[i] = get(i);
+        }
+        longs = null;
+        doubles = null;
+        strings = null;
+        objects = boxed;
+        strategy = Strategy.OBJECT;
+    }
+
+    private int capacity()
+    {
+        switch (strategy)
+        {
+            case LONG:
+                return longs.length;
+            case DOUBLE:
+                return doubles.length;
+            case STRING:
+                return strings.length;
+            case OBJECT:
+                return objects.length;
+            default:
+                return 0;
+        }
+    }
+
+    private void ensureCapacity(int needed)
+    {
+        int capacity = capacity();
+        if(needed <= capacity)
+        {
+            return;
+        }
+
+        int grown = Math.max(needed, capacity + (capacity >> 1));
+        switch (strategy)
+        {
+            case LONG:
+                longs = Arrays.copyOf(longs, grown);
+                break;
+            case DOUBLE:
+                doubles = Arrays.copyOf(doubles, grown);
+                break;
+            case STRING:
+                strings = Arrays.copyOf(strings, grown);
+                break;
+            default:
+                objects = Arrays.copyOf(objects, grown);
+                break;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder text = new StringBuilder("[");
+        for(int i = 0; i < size; i++)
+        {
+            if(i > 0)
+            {
+                text.append(", ");
+            }
+            text.append(Interpreter.stringify(get(i)));
+        }
+        return text.append("]").toString();
+    }
+}
@@ -0,0 +1,238 @@
+package lox;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/*
+* Hash map with Lox's equality, stored as an open-addressing table in flat arrays
+* instead of one node object per entry. Probing is linear and removal shifts later
+* entries back, so the table never holds tombstones.
+* Each slot keeps its key's hash, so most mismatches are settled without calling
+* equals, and a key that is the same String instance as the stored one matches on
+* reference alone. Numbers hash the bits of their double value, so 1 and 1.0 land in
+* the same slot just as Interpreter.isEqual treats them as equal.
+* */
+class LoxMap implements Serializable
+{
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Key of slot i at 2i and its value at 2i + 1, so a hit touches one cache line
+    private transient Object[] entries;
+    // 0 marks an empty slot; stored hashes are never 0
+    private transient int[] hashes;
+    private transient int size;
+    private transient int shift;
+
+    LoxMap()
+    {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    Object get(Object key)
+    {
+        int slot = find(key, hash(key));
+        return slot < 0 ? null : entries[2 * slot + 1];
+    }
+
+    boolean containsKey(Object key)
+    {
+        return find(key, hash(key)) >= 0;
+    }
+
+    void put(Object key, Object value)
+    {
+        int hash = hash(key);
+        int mask = hashes.length - 1;
+        for(int slot = home(hash); ; slot = (slot + 1) & mask)
+        {
+            if(hashes[slot] == 0)
+            {
+                hashes[slot] = hash;
+                entries[2 * slot] = key;
+                entries[2 * slot + 1] = value;
+                if(++size > (hashes.length >> 2) * 3)
+                {
+                    allocate(hashes.length * 2);
+                }
+                return;
+            }
+
+            if(hashes[slot] == hash && matches(entries[2 * slot], key))
+            {
+                entries[2 * slot + 1] = value;
+                return;
+            }
+        }
+    }
+
+    // Returns the removed value, or null if the key was absent
+    Object remove(Object key)
+    {
+        int slot = find(key, hash(key));
+        if(slot < 0)
+        {
+            return null;
+        }
+
+        Object removed = entries[2 * slot + 1];
+        int mask = hashes.length - 1;
+
+        // Shift back every later entry in the run whose home slot does not lie between the hole and itself
+        int hole = slot;
+        for(int next = (hole + 1) & mask; hashes[next] != 0; next = (next + 1) & mask)
+        {
+            int home = home(hashes[next]);
+            if(((next - home) & mask) >= ((next - hole) & mask))
+            {
+                hashes[hole] = hashes[next];
+                entries[2 * hole] = entries[2 * next];
+                entries[2 * hole + 1] = entries[2 * next + 1];
+                hole = next;
+            }
+        }
+
+        hashes[hole] = 0;
+        entries[2 * hole] = null;
+        entries[2 * hole + 1] = null;
+        size--;
+        return removed;
+    }
+
+    LoxList keys()
+    {
+        LoxList list = new LoxList();
+        for(int slot = 0; slot < hashes.length; slot++)
+        {
+            if(hashes[slot] != 0)
+            {
+                list.append(entries[2 * slot]);
+            }
+        }
+        return list;
+    }
+
+    private int find(Object key, int hash)
+    {
+        int mask = hashes.length - 1;
+        for(int slot = home(hash); hashes[slot] != 0; slot = (slot + 1) & mask)
+        {
+            if(hashes[slot] == hash && matches(entries[2 * slot], key))
+            {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matches(Object stored, Object key)
+    {
+        return stored == key || Interpreter.isEqual(stored, key);
+    }
+
+    // Consistent with Interpreter.isEqual: equal values hash alike, and the result is never 0
+    static int hash(Object key)
+    {
+        int hash;
+        if(key == null)
+        {
+            hash = 0;
+        }
+        else if(key instanceof Long)
+        {
+            hash = Long.hashCode(Double.doubleToLongBits((long)key));
+        }
+        else if(key instanceof Double)
+        {
+            hash = Long.hashCode(Double.doubleToLongBits((double)key));
+        }
+        else
+        {
+            hash = key.hashCode();
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    // Fibonacci hashing spreads keys that differ only in their high bits
+    private int home(int hash)
+    {
+        return (hash * 0x9E3779B9) >>> shift;
+    }
+
+    private void allocate(int capacity)
+    {
+        Object[] oldEntries = entries;
+        int[] oldHashes = hashes;
+
+        entries = new Object[2 * capacity];
+        hashes = new int[capacity];
+        shift = Integer.numberOfLeadingZeros(capacity) + 1;
+        size = 0;
+
+        if(oldHashes != null)
+        {
+            for(int slot = 0; slot < oldHashes.length; slot++)
+            {
+                if(oldHashes[slot] != 0)
+                {
+                    put(oldEntries[2 * slot], oldEntries[2 * slot + 1]);
+                }
+            }
+        }
+    }
+
+    // Entries are written as pairs and rehashed on reading, since identity hashes change between runs
+    private void writeObject(ObjectOutputStream out) throws IOException
+    {
+        out.defaultWriteObject();
+        out.writeInt(size);
+        for(int slot = 0; slot < hashes.length; slot++)
+        {
+            if(hashes[slot] != 0)
+            {
+                out.writeObject(entries[2 * slot]);
+                out.writeObject(entries[2 * slot + 1]);
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        int count = in.readInt();
+        if(count < 0)
+        {
+            throw new IOException("Bad map size: " + count);
+        }
+
+        allocate(INITIAL_CAPACITY);
+        for(int i = 0; i < count; i++)
+        {
+            put(in.readObject(), in.readObject());
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder text = new StringBuilder("{");
+        for(int slot = 0; slot < hashes.length; slot++)
+        {
+            if(hashes[slot] != 0)
+            {
+                if(text.length() > 1)
+                {
+                    text.append(", ");
+                }
+                text.append(Interpreter.stringify(entries[2 * slot])).append(": ").append(Interpreter.stringify(entries[2 * slot + 1]));
+            }
+        }
+        return text.append("}").toString();
+    }
+}
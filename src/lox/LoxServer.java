@@ -0,0 +1,194 @@
+package lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+* Keeps one warm JVM serving script runs over a Unix domain socket.
+*
+* Request:  UTF script path.
+* Response: frames of (byte tag, int length, bytes) tagged STDOUT or STDERR,
+*           ended by (EXIT, int exit code).
+* */
+class LoxServer
+{
+    static final byte EXIT = 0;
+    static final byte STDOUT = 1;
+    static final byte STDERR = 2;
+
+    private final Path socketPath;
+    private final Map<Path, CachedScript> parseCache = new ConcurrentHashMap<>();
+
+    LoxServer(Path socketPath)
+    {
+        this.socketPath = socketPath;
+    }
+
+    void serve() throws IOException
+    {
+        Files.deleteIfExists(socketPath);
+
+        try(ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX))
+        {
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+
+            // Each connection runs on a virtual thread of its own with its own RunState, so a slow or
+            // blocked script holds up no other client. The parse cache is shared between them.
+            while(true)
+            {
+                try
+                {
+                    SocketChannel channel = server.accept();
+                    Thread.ofVirtual().name("lox-connection").start(() -> serve(channel));
+                }
+                catch (IOException e)
+                {
+                    System.err.println("Connection failed: " + e);
+                }
+            }
+        }
+    }
+
+    private void serve(SocketChannel connection)
+    {
+        try(SocketChannel channel = connection)
+        {
+            handle(channel);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            System.err.println("Connection failed: " + e);
+        }
+    }
+
+    private void handle(SocketChannel channel) throws IOException
+    {
+        DataInputStream request = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        DataOutputStream response = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+
+        Path script = Paths.get(request.readUTF()).toAbsolutePath().normalize();
+
+        PrintStream stdout = new PrintStream(new BufferedOutputStream(new FrameOutputStream(response, STDOUT)), true);
+        PrintStream stderr = new PrintStream(new BufferedOutputStream(new FrameOutputStream(response, STDERR)), true);
+
+        int code = RunState.with(new RunState(stderr), () -> run(script, stdout));
+
+        stdout.flush();
+        stderr.flush();
+        synchronized (response)
+        {
+            response.writeByte(EXIT);
+            response.writeInt(code);
+            response.flush();
+        }
+    }
+
+    // Runs like a script given to jlox, with the options the server was started with
+    private int run(Path script, PrintStream stdout)
+    {
+        List<Statement> statements;
+        try
+        {
+            statements = parse(script);
+        }
+        catch (IOException e)
+        {
+            RunState.current().err.println("Could not read script " + script + ": " + e.getMessage());
+            return 66;
+        }
+
+        if(statements != null)
+        {
+            Interpreter interpreter = Lox.newInterpreter(stdout, Natives.globals());
+            interpreter.setBudget(Lox.newBudget());
+            interpreter.interpret(statements);
+        }
+
+        return Lox.exitCode();
+    }
+
+    // Reuses the statements parsed for an unchanged file. Scripts with syntax errors are not cached.
+    // Connections that find the same file changed at once may each parse it; the last one's statements are kept.
+    private List<Statement> parse(Path script) throws IOException
+    {
+        FileTime modified = Files.getLastModifiedTime(script);
+        long size = Files.size(script);
+
+        CachedScript cached = parseCache.get(script);
+        if(cached != null && cached.modified.equals(modified) && cached.size == size)
+        {
+            return cached.statements;
+        }
+
+        byte[] bytes = Files.readAllBytes(script);
+        List<Statement> statements = Lox.parse(new String(bytes, Charset.defaultCharset()), script.toString());
+        if(statements != null)
+        {
+            parseCache.put(script, new CachedScript(modified, size, statements));
+        }
+        return statements;
+    }
+
+    private static class CachedScript
+    {
+        final FileTime modified;
+        final long size;
+        final List<Statement> statements;
+
+        CachedScript(FileTime modified, long size, List<Statement> statements)
+        {
+            this.modified = modified;
+            this.size = size;
+            this.statements = statements;
+        }
+    }
+
+    // Writes everything flushed through it as a single tagged response frame
+    private static class FrameOutputStream extends OutputStream
+    {
+        private final DataOutputStream response;
+        private final byte tag;
+
+        FrameOutputStream(DataOutputStream response, byte tag)
+        {
+            this.response = response;
+            this.tag = tag;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException
+        {
+            synchronized (response)
+            {
+                response.writeByte(tag);
+                response.writeInt(length);
+                response.write(bytes, offset, length);
+                response.flush();
+            }
+        }
+    }
+}
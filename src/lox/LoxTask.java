@@ -0,0 +1,62 @@
+package lox;
+
+import java.util.List;
+
+/*
+* A function running on its own virtual thread, started by spawn.
+* The task has its own fork of the evaluator and RunState, and blocking calls in it park only
+* its virtual thread. A runtime error ends the task and is raised again by await.
+* Steps the task runs come out of the run's budget, and what it took but did not use
+* goes back when it ends.
+* Tasks share the variables they capture. Scopes are concurrent maps, so this cannot corrupt
+* them, but reads and writes are not ordered across tasks: values passed between running tasks
+* should go through a channel.
+* */
+class LoxTask
+{
+    private final Thread thread;
+    private Object result;
+    private RuntimeException failure;
+
+    LoxTask(ExecutionContext context, LoxCallable function)
+    {
+        context.globals().taskStarted();
+        ExecutionContext worker = context.fork();
+        RunState state = new RunState(RunState.current().err, RunState.current().strings);
+        thread = Thread.ofVirtual().name("lox-task").start(() -> RunState.with(state, () -> run(worker, function)));
+    }
+
+    private Object run(ExecutionContext worker, LoxCallable function)
+    {
+        try
+        {
+            result = function.call(worker, List.of());
+        }
+        catch (RuntimeException error)
+        {
+            failure = error;
+        }
+        finally
+        {
+            worker.finishFork();
+        }
+        return null;
+    }
+
+    // The function's return value once the task has finished
+    Object await() throws InterruptedException
+    {
+        thread.join();
+        if(failure != null)
+        {
+            throw failure;
+        }
+        return result;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<task>";
+    }
+}
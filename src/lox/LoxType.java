@@ -0,0 +1,6 @@
+package lox;
+
+// Static types TypeInference can prove for an expression
+enum LoxType {
+    NUMBER, STRING, BOOLEAN, NIL, UNKNOWN
+}
@@ -0,0 +1,172 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/*
+* A file imported with `import "path";`, parsed once and shared by every interpreter in the process.
+* The cache is keyed by absolute path and holds the modification time and size the file was
+* parsed at, so an edited file is parsed again on its next import. A load puts a FutureTask for
+* the parse in the cache and runs it outside the map's locks, so runs importing the same module
+* together wait for a single parse, and other paths are never held up by it. An import of a cached
+* module only reads the file's attributes once and the map without locking.
+* A module's statements are not changed after parsing, and the record and flat forms are
+* converted from them on first use, as FunctionBody does for function bodies.
+* Each run still executes a module's top level itself, see Imports.
+* */
+class Module
+{
+    private static final ConcurrentHashMap<Path, Loading> cache = new ConcurrentHashMap<>();
+
+    final Path path;
+    final List<Statement> statements;
+    private volatile List<StmtNode> nodes;
+    private volatile FlatAst flat;
+
+    private Module(Path path, List<Statement> statements)
+    {
+        this.path = path;
+        this.statements = statements;
+    }
+
+    // The module at the import's path, relative to the working directory like readFile's.
+    // Syntax errors are reported to the run that parses it, and the module is not cached.
+    static Module load(Token name)
+    {
+        Path path;
+        BasicFileAttributes attributes;
+        try
+        {
+            path = Paths.get((String)name.literal).toAbsolutePath().normalize();
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        }
+        catch (InvalidPathException e)
+        {
+            throw new RunTimeError(name, "Invalid module path " + name.literal + ": " + e.getReason() + ".");
+        }
+        catch (NoSuchFileException e)
+        {
+            throw new RunTimeError(name, "Could not import " + name.literal + ": no such file.");
+        }
+        catch (IOException e)
+        {
+            throw new RunTimeError(name, "Could not import " + name.literal + ": " + e.getMessage());
+        }
+
+        Loading current = cache.get(path);
+        while(current == null || !current.isOf(attributes))
+        {
+            Loading fresh = new Loading(attributes, name, path);
+            boolean added = current == null ? cache.putIfAbsent(path, fresh) == null : cache.replace(path, current, fresh);
+            if(added)
+            {
+                current = fresh;
+                fresh.task.run();
+            }
+            else
+            {
+                current = cache.get(path);
+            }
+        }
+        return current.await(name, path);
+    }
+
+    private static Module parse(Token name, Path path) throws IOException
+    {
+        String source = new String(Files.readAllBytes(path), Charset.defaultCharset());
+        List<Statement> statements = Lox.parse(source, path.toString());
+        if(statements == null)
+        {
+            throw new RunTimeError(name, "Syntax error in module " + name.literal + ".");
+        }
+        return new Module(path, statements);
+    }
+
+    // One parse of the file as it was when the load that started it read its attributes
+    private static class Loading
+    {
+        final FileTime modified;
+        final long size;
+        final FutureTask<Module> task;
+
+        Loading(BasicFileAttributes attributes, Token name, Path path)
+        {
+            this.modified = attributes.lastModifiedTime();
+            this.size = attributes.size();
+            this.task = new FutureTask<>(() -> parse(name, path));
+        }
+
+        boolean isOf(BasicFileAttributes attributes)
+        {
+            return modified.equals(attributes.lastModifiedTime()) && size == attributes.size();
+        }
+
+        // A failed parse leaves the cache, so the next import tries again
+        Module await(Token name, Path path)
+        {
+            try
+            {
+                return task.get();
+            }
+            catch (ExecutionException e)
+            {
+                cache.remove(path, this);
+                if(e.getCause() instanceof NoSuchFileException)
+                {
+                    throw new RunTimeError(name, "Could not import " + name.literal + ": no such file.");
+                }
+                if(e.getCause() instanceof IOException cause)
+                {
+                    throw new RunTimeError(name, "Could not import " + name.literal + ": " + cause.getMessage());
+                }
+                if(e.getCause() instanceof RunTimeError cause)
+                {
+                    throw new RunTimeError(name, cause.getMessage());
+                }
+                if(e.getCause() instanceof RuntimeException cause)
+                {
+                    throw cause;
+                }
+                throw (Error)e.getCause();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new RunTimeError(name, "Interrupted while importing " + name.literal + ".");
+            }
+        }
+    }
+
+    List<StmtNode> nodes()
+    {
+        List<StmtNode> converted = nodes;
+        if(converted == null)
+        {
+            converted = StmtNode.ofAll(statements);
+            nodes = converted;
+        }
+        return converted;
+    }
+
+    FlatAst flat()
+    {
+        FlatAst encoded = flat;
+        if(encoded == null)
+        {
+            encoded = FlatAst.encode(statements);
+            flat = encoded;
+        }
+        return encoded;
+    }
+}
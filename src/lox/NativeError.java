@@ -0,0 +1,10 @@
+package lox;
+
+// Raised by a native function; the interpreter reports it at the call's closing parenthesis
+class NativeError extends RuntimeException
+{
+    NativeError(String message)
+    {
+        super(message, null, false, false);
+    }
+}
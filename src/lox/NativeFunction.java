@@ -0,0 +1,55 @@
+package lox;
+
+import java.io.Serializable;
+import java.util.List;
+
+/*
+* A function implemented in Java. Only the name is serialized; a snapshot
+* restores it as the instance registered under that name in Natives.
+* */
+class NativeFunction implements LoxCallable, Serializable
+{
+    interface Body
+    {
+        Object call(ExecutionContext context, List<Object> arguments);
+    }
+
+    private final String name;
+    private final int arity;
+    private final transient Body body;
+
+    NativeFunction(String name, int arity, Body body)
+    {
+        this.name = name;
+        this.arity = arity;
+        this.body = body;
+    }
+
+    String name()
+    {
+        return name;
+    }
+
+    @Override
+    public int arity()
+    {
+        return arity;
+    }
+
+    @Override
+    public Object call(ExecutionContext context, List<Object> arguments)
+    {
+        return body.call(context, arguments);
+    }
+
+    private Object readResolve()
+    {
+        return Natives.lookup(name);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<native fn " + name + ">";
+    }
+}
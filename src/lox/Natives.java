@@ -0,0 +1,489 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+* The functions every interpreter starts with in its globals.
+* Each native has a fixed slot in registration order, so a resolver can bind
+* a global name to its slot once and fetch the function with at(slot).
+* */
+class Natives
+{
+    private static final List<NativeFunction> table = new ArrayList<>();
+    private static final Map<String, Integer> slots = new HashMap<>();
+
+    private static final String NOT_A_CONTAINER = "Expected a list, array or map.";
+
+    static
+    {
+        register("list", 0, (context, arguments) -> new LoxList());
+        register("append", 2, (context, arguments) -> {
+            list(arguments.get(0)).append(arguments.get(1));
+            return null;
+        });
+
+        register("Float64Array", 1, (context, arguments) -> newArray(LoxArray.Kind.FLOAT64, arguments.get(0)));
+        register("Int32Array", 1, (context, arguments) -> newArray(LoxArray.Kind.INT32, arguments.get(0)));
+        register("mapFloat64Array", 1, (context, arguments) -> mapArray(LoxArray.Kind.FLOAT64, arguments.get(0)));
+        register("mapInt32Array", 1, (context, arguments) -> mapArray(LoxArray.Kind.INT32, arguments.get(0)));
+        register("fill", 2, (context, arguments) -> {
+            LoxArray array = writableArray(arguments.get(0));
+            array.fill(element(array, arguments.get(1)));
+            return null;
+        });
+        register("copy", 5, (context, arguments) -> {
+            copy(arguments);
+            return null;
+        });
+        register("sum", 1, (context, arguments) -> array(arguments.get(0)).sum());
+
+        register("readLines", 1, (context, arguments) -> {
+            Path path = path(arguments.get(0));
+            try
+            {
+                return new LineReader(path);
+            }
+            catch (IOException e)
+            {
+                throw fileError("read", path, e);
+            }
+        });
+        register("nextLine", 1, (context, arguments) -> {
+            if(!(arguments.get(0) instanceof LineReader lines))
+            {
+                throw new NativeError("Expected a line reader from readLines.");
+            }
+            try
+            {
+                return lines.next();
+            }
+            catch (IOException e)
+            {
+                throw new NativeError("Could not read " + lines + ": " + e.getMessage());
+            }
+        });
+        register("readFile", 1, (context, arguments) -> {
+            Path path = path(arguments.get(0));
+            try
+            {
+                return Files.readString(path);
+            }
+            catch (IOException e)
+            {
+                throw fileError("read", path, e);
+            }
+        });
+        register("writeFile", 2, (context, arguments) -> {
+            write(arguments, StandardOpenOption.TRUNCATE_EXISTING);
+            return null;
+        });
+        register("appendFile", 2, (context, arguments) -> {
+            write(arguments, StandardOpenOption.APPEND);
+            return null;
+        });
+
+        register("map", 0, (context, arguments) -> new LoxMap());
+        register("has", 2, (context, arguments) -> map(arguments.get(0)).containsKey(arguments.get(1)));
+        register("remove", 2, (context, arguments) -> map(arguments.get(0)).remove(arguments.get(1)));
+        register("keys", 1, (context, arguments) -> map(arguments.get(0)).keys());
+
+        register("parallelMap", 2, (context, arguments) ->
+                Parallel.map(context, arguments.get(0), callable(arguments.get(1), 1)));
+        register("parallelReduce", 3, (context, arguments) ->
+                Parallel.reduce(context, arguments.get(0), callable(arguments.get(1), 2), arguments.get(2)));
+        register("parallelFor", 3, (context, arguments) -> {
+            long start = integer(arguments.get(0), "Range start must be an integer.");
+            long end = integer(arguments.get(1), "Range end must be an integer.");
+            Parallel.forRange(context, start, end, callable(arguments.get(2), 1));
+            return null;
+        });
+
+        register("spawn", 1, (context, arguments) -> {
+            return new LoxTask(context, callable(arguments.get(0), 0));
+        });
+        register("await", 1, (context, arguments) -> {
+            if(!(arguments.get(0) instanceof LoxTask task))
+            {
+                throw new NativeError("Expected a task from spawn.");
+            }
+            try
+            {
+                return task.await();
+            }
+            catch (InterruptedException e)
+            {
+                throw interrupted();
+            }
+        });
+        register("channel", 1, (context, arguments) -> {
+            long capacity = integer(arguments.get(0), "Channel capacity must be an integer.");
+            if(capacity < 1 || capacity > Integer.MAX_VALUE)
+            {
+                throw new NativeError("Channel capacity must be at least 1.");
+            }
+            return new LoxChannel((int)capacity);
+        });
+        register("send", 2, (context, arguments) -> {
+            try
+            {
+                channel(arguments.get(0)).send(arguments.get(1));
+                return null;
+            }
+            catch (InterruptedException e)
+            {
+                throw interrupted();
+            }
+        });
+        register("receive", 1, (context, arguments) -> {
+            try
+            {
+                return channel(arguments.get(0)).receive();
+            }
+            catch (InterruptedException e)
+            {
+                throw interrupted();
+            }
+        });
+        register("close", 1, (context, arguments) -> {
+            channel(arguments.get(0)).close();
+            return null;
+        });
+        register("sleep", 1, (context, arguments) -> {
+            try
+            {
+                Thread.sleep(Math.max(0, integer(arguments.get(0), "Sleep time must be an integer.")));
+                return null;
+            }
+            catch (InterruptedException e)
+            {
+                throw interrupted();
+            }
+        });
+
+        register("isolate", 1, (context, arguments) -> {
+            return Isolate.start(path(arguments.get(0)), context);
+        });
+        register("post", 2, (context, arguments) -> {
+            if(!(arguments.get(0) instanceof Isolate target))
+            {
+                throw new NativeError("Expected an isolate.");
+            }
+            target.post(arguments.get(1));
+            return null;
+        });
+        register("take", 0, (context, arguments) -> {
+            if(!context.isolate().isHost())
+            {
+                throw new NativeError("Isolates receive messages through onMessage, not take.");
+            }
+            try
+            {
+                return context.isolate().take();
+            }
+            catch (InterruptedException e)
+            {
+                throw interrupted();
+            }
+        });
+
+        // Element access shared by lists, arrays and maps
+        register("get", 2, (context, arguments) -> {
+            Object target = arguments.get(0);
+            if(target instanceof LoxMap map)
+            {
+                return map.get(arguments.get(1));
+            }
+            if(target instanceof LoxList list)
+            {
+                return list.get(index(arguments.get(1), list.size()));
+            }
+            if(target instanceof LoxArray array)
+            {
+                return array.get(index(arguments.get(1), array.length()));
+            }
+            throw new NativeError(NOT_A_CONTAINER);
+        });
+        register("set", 3, (context, arguments) -> {
+            Object target = arguments.get(0);
+            if(target instanceof LoxMap map)
+            {
+                map.put(arguments.get(1), arguments.get(2));
+            }
+            else if(target instanceof LoxList list)
+            {
+                list.set(index(arguments.get(1), list.size()), arguments.get(2));
+            }
+            else if(target instanceof LoxArray)
+            {
+                LoxArray array = writableArray(target);
+                array.set(index(arguments.get(1), array.length()), element(array, arguments.get(2)));
+            }
+            else
+            {
+                throw new NativeError(NOT_A_CONTAINER);
+            }
+            return arguments.get(2);
+        });
+        register("length", 1, (context, arguments) -> {
+            Object target = arguments.get(0);
+            if(target instanceof LoxMap map)
+            {
+                return (long)map.size();
+            }
+            if(target instanceof LoxList list)
+            {
+                return (long)list.size();
+            }
+            if(target instanceof LoxArray array)
+            {
+                return (long)array.length();
+            }
+            throw new NativeError(NOT_A_CONTAINER);
+        });
+    }
+
+    private static void register(String name, int arity, NativeFunction.Body body)
+    {
+        slots.put(name, table.size());
+        table.add(new NativeFunction(name, arity, body));
+    }
+
+    // The native's slot, or -1 if there is no native with that name
+    static int slot(String name)
+    {
+        return slots.getOrDefault(name, -1);
+    }
+
+    static NativeFunction at(int slot)
+    {
+        return table.get(slot);
+    }
+
+    static int count()
+    {
+        return table.size();
+    }
+
+    static NativeFunction lookup(String name)
+    {
+        int slot = slot(name);
+        return slot < 0 ? null : at(slot);
+    }
+
+    // A fresh global environment holding every native
+    static Environment globals()
+    {
+        Environment globals = new Environment();
+        for(NativeFunction function : table)
+        {
+            globals.define(function.name(), function);
+        }
+        return globals;
+    }
+
+    private static LoxList list(Object value)
+    {
+        if(value instanceof LoxList)
+        {
+            return (LoxList)value;
+        }
+        throw new NativeError("Expected a list.");
+    }
+
+    private static LoxMap map(Object value)
+    {
+        if(value instanceof LoxMap)
+        {
+            return (LoxMap)value;
+        }
+        throw new NativeError("Expected a map.");
+    }
+
+    private static LoxCallable callable(Object value, int arity)
+    {
+        if(!(value instanceof LoxCallable function))
+        {
+            throw new NativeError("Expected a function.");
+        }
+        if(function.arity() != arity)
+        {
+            throw new NativeError("Expected a function of " + arity + (arity == 1 ? " argument." : " arguments."));
+        }
+        return function;
+    }
+
+    private static LoxChannel channel(Object value)
+    {
+        if(value instanceof LoxChannel)
+        {
+            return (LoxChannel)value;
+        }
+        throw new NativeError("Expected a channel.");
+    }
+
+    private static NativeError interrupted()
+    {
+        Thread.currentThread().interrupt();
+        return new NativeError("Interrupted while waiting.");
+    }
+
+    private static LoxArray array(Object value)
+    {
+        if(value instanceof LoxArray)
+        {
+            return (LoxArray)value;
+        }
+        throw new NativeError("Expected a Float64Array or Int32Array.");
+    }
+
+    private static LoxArray writableArray(Object value)
+    {
+        LoxArray array = array(value);
+        if(array.isReadOnly())
+        {
+            throw new NativeError("Cannot modify a mapped array.");
+        }
+        return array;
+    }
+
+    private static Object element(LoxArray array, Object value)
+    {
+        if(!array.accepts(value))
+        {
+            throw new NativeError(array.kind() == LoxArray.Kind.FLOAT64
+                    ? "Float64Array elements must be numbers."
+                    : "Int32Array elements must be 32-bit integers.");
+        }
+        return value;
+    }
+
+    private static LoxArray newArray(LoxArray.Kind kind, Object length)
+    {
+        long count = integer(length, "Array length must be an integer.");
+        if(count < 0 || count > LoxArray.maxLength(kind))
+        {
+            throw new NativeError("Array length must be between 0 and " + LoxArray.maxLength(kind) + ".");
+        }
+        return new LoxArray(kind, (int)count);
+    }
+
+    private static LoxArray mapArray(LoxArray.Kind kind, Object value)
+    {
+        Path path = path(value);
+        try
+        {
+            return LoxArray.map(kind, path);
+        }
+        catch (IOException e)
+        {
+            throw fileError("map", path, e);
+        }
+    }
+
+    // writeFile and appendFile: the text is encoded once and handed to the channel as a single buffer
+    private static void write(List<Object> arguments, StandardOpenOption mode)
+    {
+        Path path = path(arguments.get(0));
+        if(!(arguments.get(1) instanceof String text))
+        {
+            throw new NativeError("Can only write strings to a file.");
+        }
+
+        ByteBuffer bytes = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode))
+        {
+            while(bytes.hasRemaining())
+            {
+                channel.write(bytes);
+            }
+        }
+        catch (IOException e)
+        {
+            throw fileError("write", path, e);
+        }
+    }
+
+    private static Path path(Object value)
+    {
+        if(!(value instanceof String))
+        {
+            throw new NativeError("Expected a file path string.");
+        }
+
+        try
+        {
+            return Paths.get((String)value);
+        }
+        catch (InvalidPathException e)
+        {
+            throw new NativeError("Invalid path " + value + ": " + e.getReason() + ".");
+        }
+    }
+
+    private static NativeError fileError(String action, Path path, IOException e)
+    {
+        if(e instanceof NoSuchFileException)
+        {
+            return new NativeError("Could not " + action + " " + path + ": no such file.");
+        }
+        return new NativeError("Could not " + action + " " + path + ": " + e.getMessage());
+    }
+
+    // copy(source, sourceStart, destination, destinationStart, count)
+    private static void copy(List<Object> arguments)
+    {
+        LoxArray source = array(arguments.get(0));
+        LoxArray destination = writableArray(arguments.get(2));
+        if(source.kind() != destination.kind())
+        {
+            throw new NativeError("Cannot copy between a Float64Array and an Int32Array.");
+        }
+
+        long sourceStart = integer(arguments.get(1), "Index must be an integer.");
+        long start = integer(arguments.get(3), "Index must be an integer.");
+        long count = integer(arguments.get(4), "Count must be an integer.");
+        if(count < 0 || sourceStart < 0 || start < 0
+                || sourceStart + count > source.length() || start + count > destination.length())
+        {
+            throw new NativeError("Copy range out of bounds.");
+        }
+        destination.copyFrom(source, (int)sourceStart, (int)start, (int)count);
+    }
+
+    private static int index(Object value, int size)
+    {
+        long index = integer(value, "Index must be an integer.");
+        if(index < 0 || index >= size)
+        {
+            throw new NativeError("Index out of range.");
+        }
+        return (int)index;
+    }
+
+    private static long integer(Object value, String message)
+    {
+        if(value instanceof Long)
+        {
+            return (long)value;
+        }
+
+        if(value instanceof Double && (double)value == Math.rint((double)value))
+        {
+            return (long)(double)value;
+        }
+        throw new NativeError(message);
+    }
+}
@@ -0,0 +1,177 @@
+package lox;
+
+/*
+* Lox has a single number type, but integral values in the range a double
+* represents exactly are carried as Long. Operations on two Longs stay exact
+* and widen to Double when the result is fractional, negative zero, or too
+* large, so every result matches what double arithmetic would have produced.
+* Small Longs also come from Long.valueOf's cache instead of a new box.
+* */
+class Numbers
+{
+    // Largest magnitude for which every integer is exactly representable as a double
+    private static final long MAX_EXACT = 1L << 53;
+
+    static boolean isNumber(Object value)
+    {
+        return value instanceof Long || value instanceof Double;
+    }
+
+    static double toDouble(Object value)
+    {
+        return ((Number)value).doubleValue();
+    }
+
+    // Parses a scanned literal: digits with an optional fractional part
+    static Object parse(String text)
+    {
+        if(text.indexOf('.') < 0 && text.length() <= 18)
+        {
+            long value = Long.parseLong(text);
+            if(value <= MAX_EXACT)
+            {
+                return value;
+            }
+        }
+        return Double.parseDouble(text);
+    }
+
+    static Object add(Object left, Object right)
+    {
+        if(left instanceof Long && right instanceof Long)
+        {
+            return integer((long)left + (long)right);
+        }
+        return toDouble(left) + toDouble(right);
+    }
+
+    static Object subtract(Object left, Object right)
+    {
+        if(left instanceof Long && right instanceof Long)
+        {
+            return integer((long)left - (long)right);
+        }
+        return toDouble(left) - toDouble(right);
+    }
+
+    static Object multiply(Object left, Object right)
+    {
+        if(left instanceof Long && right instanceof Long)
+        {
+            long a = (long)left;
+            long b = (long)right;
+            long high = Math.multiplyHigh(a, b);
+            long product = a * b;
+
+            // No overflow when the high word is just the sign extension of the low word
+            boolean overflow = high != (product >> 63);
+            boolean negativeZero = product == 0 && (a < 0 || b < 0);
+            if(!overflow && !negativeZero)
+            {
+                return integer(product);
+            }
+        }
+        return toDouble(left) * toDouble(right);
+    }
+
+    static Object divide(Object left, Object right)
+    {
+        if(left instanceof Long && right instanceof Long)
+        {
+            long a = (long)left;
+            long b = (long)right;
+            if(b != 0 && a % b == 0 && !(a == 0 && b < 0))
+            {
+                return a / b;
+            }
+        }
+        return toDouble(left) / toDouble(right);
+    }
+
+    static Object negate(Object operand)
+    {
+        if(operand instanceof Long && (long)operand != 0)
+        {
+            return -(long)operand;
+        }
+        return -toDouble(operand);
+    }
+
+    static boolean greater(Object left, Object right)
+    {
+        if(left instanceof Long && right instanceof Long)
+        {
+            return (long)left > (long)right;
+        }
+        return toDouble(left) > toDouble(right);
+    }
+
+    static boolean greaterEqual(Object left, Object right)
+    {
+        if(left instanceof Long && right instanceof Long)
+        {
+            return (long)left >= (long)right;
+        }
+        return toDouble(left) >= toDouble(right);
+    }
+
+    static boolean less(Object left, Object right)
+    {
+        if(left instanceof Long && right instanceof Long)
+        {
+            return (long)left < (long)right;
+        }
+        return toDouble(left) < toDouble(right);
+    }
+
+    static boolean lessEqual(Object left, Object right)
+    {
+        if(left instanceof Long && right instanceof Long)
+        {
+            return (long)left <= (long)right;
+        }
+        return toDouble(left) <= toDouble(right);
+    }
+
+    // Same answer as Double.equals on the widened values, so NaN equals NaN and 0 differs from -0
+    static boolean equal(Object left, Object right)
+    {
+        if(left instanceof Long && right instanceof Long)
+        {
+            return (long)left == (long)right;
+        }
+        return Double.doubleToLongBits(toDouble(left)) == Double.doubleToLongBits(toDouble(right));
+    }
+
+    // Matches the text stringify produces for the same value held as a Double
+    static String toString(Object value)
+    {
+        if(value instanceof Long)
+        {
+            long integer = (long)value;
+            // Double.toString switches to scientific notation from 10^7 up
+            if(integer > -10_000_000 && integer < 10_000_000)
+            {
+                return Long.toString(integer);
+            }
+        }
+
+        String text = Double.toString(toDouble(value));
+        // Remove ".0" from integer-valued doubles
+        if (text.endsWith(".0"))
+        {
+            text = text.substring(0, text.length()-2);
+        }
+        return text;
+    }
+
+    // Exact integral results stay Long; larger ones widen as double arithmetic would have rounded them
+    static Object integer(long value)
+    {
+        if(value > MAX_EXACT || value < -MAX_EXACT)
+        {
+            return (double)value;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,172 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/*
+* parallelMap, parallelReduce and parallelFor.
+* The index range is cut into at most CHUNKS contiguous chunks, which run on the
+* common fork-join pool, each with a fork of the caller's evaluator sharing its globals.
+* Chunk boundaries depend only on the range length, so results and the grouping of
+* a reduction are the same on any number of cores. Steps the chunks run come out of
+* the caller's step budget.
+*
+* Callbacks may read captured variables but not assign them: the callback's
+* enclosing scopes are frozen for the duration of the call. Lists and maps reachable
+* from captured variables must likewise only be read. A Float64Array or Int32Array may
+* be written, as long as no two callbacks write the same index.
+* Each chunk stops at its first runtime error, and the error reported is the one from
+* the lowest failing index.
+* */
+class Parallel
+{
+    private static final int CHUNKS = 64;
+
+    interface ChunkBody
+    {
+        Object run(ExecutionContext worker, long start, long end);
+    }
+
+    static LoxList map(ExecutionContext context, Object source, LoxCallable function)
+    {
+        int length = length(source);
+        Object[] results = new Object[length];
+
+        run(context, function, 0, length, (worker, start, end) -> {
+            for(int i = (int)start; i < end; i++)
+            {
+                results[i] = function.call(worker, List.of(element(source, i)));
+            }
+            return null;
+        });
+
+        LoxList list = new LoxList();
+        for(Object result : results)
+        {
+            list.append(result);
+        }
+        return list;
+    }
+
+    // Each chunk folds its elements starting from initial, then the chunk results are folded in order,
+    // so initial must be an identity of function and function must be associative
+    static Object reduce(ExecutionContext context, Object source, LoxCallable function, Object initial)
+    {
+        List<Object> partials = run(context, function, 0, length(source), (worker, start, end) -> {
+            Object accumulator = initial;
+            for(int i = (int)start; i < end; i++)
+            {
+                accumulator = function.call(worker, List.of(accumulator, element(source, i)));
+            }
+            return accumulator;
+        });
+
+        Object result = initial;
+        for(Object partial : partials)
+        {
+            result = function.call(context, List.of(result, partial));
+        }
+        return result;
+    }
+
+    static void forRange(ExecutionContext context, long start, long end, LoxCallable function)
+    {
+        run(context, function, start, end, (worker, from, to) -> {
+            for(long i = from; i < to; i++)
+            {
+                function.call(worker, List.of((Object)i));
+            }
+            return null;
+        });
+    }
+
+    private static List<Object> run(ExecutionContext context, LoxCallable function, long start, long end,
+                                    ChunkBody body)
+    {
+        long length = Math.max(0, end - start);
+        long chunk = Math.max(1, (length + CHUNKS - 1) / CHUNKS);
+
+        Environment captured = function instanceof LoxFunction ? ((LoxFunction)function).closure() : null;
+        Environment stop = captured == null ? null : captured.freeze();
+        try
+        {
+            // Workers report lazily parsed syntax errors to the caller's run
+            RunState state = RunState.current();
+            int pieces = (int)((length + chunk - 1) / chunk);
+            List<Callable<Object>> tasks = new ArrayList<>(pieces);
+            for(long from = start; from < end; from += chunk)
+            {
+                long chunkStart = from;
+                long chunkEnd = Math.min(end, from + chunk);
+                tasks.add(() -> RunState.with(state, () -> {
+                    ExecutionContext worker = context.fork();
+                    try
+                    {
+                        return body.run(worker, chunkStart, chunkEnd);
+                    }
+                    finally
+                    {
+                        worker.finishFork();
+                    }
+                }));
+            }
+
+            List<Object> partials = new ArrayList<>(tasks.size());
+            for(Future<Object> future : ForkJoinPool.commonPool().invokeAll(tasks))
+            {
+                partials.add(join(future));
+            }
+            return partials;
+        }
+        finally
+        {
+            if(captured != null)
+            {
+                captured.thaw(stop);
+            }
+        }
+    }
+
+    private static Object join(Future<Object> future)
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (ExecutionException e)
+        {
+            if(e.getCause() instanceof RuntimeException cause)
+            {
+                throw cause;
+            }
+            throw new NativeError("Parallel callback failed: " + e.getCause());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new NativeError("Interrupted while waiting for a parallel callback.");
+        }
+    }
+
+    private static int length(Object source)
+    {
+        if(source instanceof LoxList list)
+        {
+            return list.size();
+        }
+        if(source instanceof LoxArray array)
+        {
+            return array.length();
+        }
+        throw new NativeError("Expected a list or array.");
+    }
+
+    private static Object element(Object source, int index)
+    {
+        return source instanceof LoxList list ? list.get(index) : ((LoxArray)source).get(index);
+    }
+}
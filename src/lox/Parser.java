@@ -6,19 +6,99 @@ import static lox.TokenType.*;
 
 /*
 * Parser Class
-* Recursive Decent Parsing
+* Recursive descent for statements, Pratt parsing for expressions
 * */
 public class Parser
 {
     private static class ParseError extends RuntimeException {}
 
     private final List<Token> tokens;
+    // Where the tokens were scanned from, so a deferred body can be scanned again; null for LoxDocument
+    private final Scanner scanner;
+    private final int end;
+    private final boolean strict;
     private int current = 0;
+    private int functionDepth = 0;
+    private boolean hadError = false;
     private final String missing_left_operand = "Missing left-hand operand.";
 
-    Parser(List<Token> tokens)
+    // Binding power of each token when it appears after an operand, indexed by TokenType ordinal.
+    // Tokens that are not infix operators are left at 0 and end an expression.
+    private static final int CONDITIONAL = 1;
+    private static final int LOGIC_OR = 2;
+    private static final int LOGIC_AND = 3;
+    private static final int EQUALITY = 4;
+    private static final int COMPARISON = 5;
+    private static final int TERM = 6;
+    private static final int FACTOR = 7;
+    private static final int UNARY = 8;
+    private static final int CALL = 9;
+
+    private static final int[] infixPrecedence = new int[TokenType.values().length];
+
+    static
+    {
+        infixPrecedence[QUESTION.ordinal()] = CONDITIONAL;
+        infixPrecedence[OR.ordinal()] = LOGIC_OR;
+        infixPrecedence[AND.ordinal()] = LOGIC_AND;
+        infixPrecedence[BANG_EQUAL.ordinal()] = EQUALITY;
+        infixPrecedence[EQUAL_EQUAL.ordinal()] = EQUALITY;
+        infixPrecedence[GREATER.ordinal()] = COMPARISON;
+        infixPrecedence[GREATER_EQUAL.ordinal()] = COMPARISON;
+        infixPrecedence[LESS.ordinal()] = COMPARISON;
+        infixPrecedence[LESS_EQUAL.ordinal()] = COMPARISON;
+        infixPrecedence[MINUS.ordinal()] = TERM;
+        infixPrecedence[PLUS.ordinal()] = TERM;
+        infixPrecedence[SLASH.ordinal()] = FACTOR;
+        infixPrecedence[STAR.ordinal()] = FACTOR;
+        infixPrecedence[LEFT_PAREN.ordinal()] = CALL;
+    }
+
+    // In strict mode function bodies are parsed up front so their syntax errors are reported eagerly
+    Parser(Scanner scanner, boolean strict)
+    {
+        this.tokens = scanner.tokens();
+        this.scanner = scanner;
+        this.end = tokens.size() - 1;
+        this.strict = strict;
+    }
+
+    // Parses the deferred body of a function, the tokens before end
+    Parser(Scanner scanner, int end)
+    {
+        this.tokens = scanner.tokens();
+        this.scanner = scanner;
+        this.end = end;
+        this.strict = false;
+        this.functionDepth = 1;
+    }
+
+    // Parses top-level declarations one at a time with next, from start until EOF.
+    // For LoxDocument, whose token list is scanned as the parser reads it.
+    Parser(List<Token> tokens, int start, boolean strict)
     {
         this.tokens = tokens;
+        this.scanner = null;
+        this.current = start;
+        this.end = Integer.MAX_VALUE;
+        this.strict = strict;
+    }
+
+    boolean hadError()
+    {
+        return hadError;
+    }
+
+    // The next top-level declaration, or null if it had a syntax error
+    Statement next()
+    {
+        return declaration();
+    }
+
+    // Index of the first token not yet consumed
+    int position()
+    {
+        return current;
     }
 
     List<Statement> parse()
@@ -37,15 +117,166 @@ public class Parser
         {
             return printStatement();
         }
+
+        if(match(RETURN))
+        {
+            return returnStatement();
+        }
+
+        if(match(IF))
+        {
+            return ifStatement();
+        }
+
+        if(match(WHILE))
+        {
+            return whileStatement();
+        }
+
+        if(match(FOR))
+        {
+            return forStatement();
+        }
+
+        if(match(IMPORT))
+        {
+            return importStatement();
+        }
+
+        if(match(LEFT_BRACE))
+        {
+            return new Statement.Block(block());
+        }
         return expressionStatement();
     }
 
+    private Statement ifStatement()
+    {
+        consume(LEFT_PAREN, "Expect '(' after 'if'.");
+        Expr condition = expression();
+        consume(RIGHT_PAREN, "Expect ')' after if condition.");
+
+        Statement thenBranch = statement();
+        Statement elseBranch = null;
+        if(match(ELSE))
+        {
+            elseBranch = statement();
+        }
+
+        return new Statement.If(condition, thenBranch, elseBranch);
+    }
+
+    private Statement whileStatement()
+    {
+        Token keyword = previous();
+        consume(LEFT_PAREN, "Expect '(' after 'while'.");
+        Expr condition = expression();
+        consume(RIGHT_PAREN, "Expect ')' after condition.");
+
+        return new Statement.While(keyword, condition, statement());
+    }
+
+    // A for loop is desugared into a while loop inside a block
+    private Statement forStatement()
+    {
+        Token keyword = previous();
+        consume(LEFT_PAREN, "Expect '(' after 'for'.");
+
+        Statement initializer;
+        if(match(SEMICOLON))
+        {
+            initializer = null;
+        }
+        else if(match(VAR))
+        {
+            initializer = varDeclaration();
+        }
+        else
+        {
+            initializer = expressionStatement();
+        }
+
+        Expr condition = null;
+        if(!check(SEMICOLON))
+        {
+            condition = expression();
+        }
+        consume(SEMICOLON, "Expect ';' after loop condition.");
+
+        Expr increment = null;
+        if(!check(RIGHT_PAREN))
+        {
+            increment = expression();
+        }
+        consume(RIGHT_PAREN, "Expect ')' after for clauses.");
+
+        Statement body = statement();
+
+        if(increment != null)
+        {
+            body = new Statement.Block(List.of(body, new Statement.Expression(increment)));
+        }
+
+        if(condition == null)
+        {
+            condition = new Expr.Literal(true);
+        }
+        body = new Statement.While(keyword, condition, body);
+
+        if(initializer != null)
+        {
+            body = new Statement.Block(List.of(initializer, body));
+        }
+
+        return body;
+    }
+
+    private Statement importStatement()
+    {
+        Token keyword = previous();
+        Token path = consume(STRING, "Expect module path after 'import'.");
+        consume(SEMICOLON, "Expect ';' after module path.");
+        return new Statement.Import(keyword, path);
+    }
+
+    private Statement returnStatement()
+    {
+        Token keyword = previous();
+        if(functionDepth == 0)
+        {
+            error(keyword, "Can't return from top-level code.");
+        }
+
+        Expr value = null;
+        if(!check(SEMICOLON))
+        {
+            value = expression();
+        }
+
+        consume(SEMICOLON, "Expect ';' after return value.");
+        return new Statement.Return(keyword, value);
+    }
+
+    private List<Statement> block()
+    {
+        List<Statement> statements = new ArrayList<>();
+
+        while(!check(RIGHT_BRACE) && !isAtEnd())
+        {
+            statements.add(declaration());
+        }
+
+        consume(RIGHT_BRACE, "Expect '}' after block.");
+        return statements;
+    }
+
     private Statement printStatement()
     {
+        Token keyword = previous();
         Expr value = expression();
         consume(SEMICOLON, "Expect ';' after value.");
 
-        return new Statement.Print(value);
+        return new Statement.Print(keyword, value);
     }
 
     private Statement expressionStatement()
@@ -60,6 +291,11 @@ public class Parser
     {
         try
         {
+            if(match(FUN))
+            {
+                return function("function");
+            }
+
             if(match(VAR))
             {
                 return varDeclaration();
@@ -73,165 +309,223 @@ public class Parser
         }
     }
 
-    private Statement varDeclaration()
+    private Statement function(String kind)
     {
-        Token name = consume(IDENTIFIER, "Expect variable name.");
-        Expr initializer = null;
+        Token name = consume(IDENTIFIER, "Expect " + kind + " name.");
+        consume(LEFT_PAREN, "Expect '(' after " + kind + " name.");
 
-        if(match(EQUAL))
+        List<Token> parameters = new ArrayList<>();
+        if(!check(RIGHT_PAREN))
         {
-            initializer = expression();
+            do
+            {
+                if(parameters.size() >= 255)
+                {
+                    error(peek(), "Can't have more than 255 parameters.");
+                }
+                parameters.add(consume(IDENTIFIER, "Expect parameter name."));
+            }
+            while(match(COMMA));
         }
-        consume(SEMICOLON,"Expect ';' after variable declaration.");
-        return new Statement.Var(name, initializer);
-    }
+        consume(RIGHT_PAREN, "Expect ')' after parameters.");
+        consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
 
-    private Expr expression()
-    {
-        return conditional();
+        if(strict)
+        {
+            functionDepth++;
+            try
+            {
+                return new Statement.Function(name, parameters, FunctionBody.parsed(name, block()));
+            }
+            finally
+            {
+                functionDepth--;
+            }
+        }
+
+        return new Statement.Function(name, parameters, skipBody(name));
     }
 
-    private Expr equality()
+    // Pre-parses a function body by matching braces only
+    private FunctionBody skipBody(Token name)
     {
-        Expr expr = comparison();
+        int start = current;
+        int depth = 1;
 
-        while(match(BANG_EQUAL, EQUAL_EQUAL))
+        while(!isAtEnd())
         {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
+            TokenType type = peek().type;
+            if(type == LEFT_BRACE)
+            {
+                depth++;
+            }
+            else if(type == RIGHT_BRACE && --depth == 0)
+            {
+                break;
+            }
+            advance();
         }
-        return expr;
+
+        int bodyEnd = current;
+        consume(RIGHT_BRACE, "Expect '}' after block.");
+        Token open = tokens.get(start - 1);
+        return FunctionBody.deferred(name, scanner.source(), scanner.offset(start - 1), scanner.offset(bodyEnd), open.line);
     }
 
-    private Expr comparison()
+    private Statement varDeclaration()
     {
-        Expr expr = addition();
+        Token name = consume(IDENTIFIER, "Expect variable name.");
+        Expr initializer = null;
 
-        while(match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL))
+        if(match(EQUAL))
         {
-            Token operator = previous();
-            Expr right = addition();
-            expr = new Expr.Binary(expr, operator, right);
+            initializer = expression();
         }
-        return expr;
+        consume(SEMICOLON,"Expect ';' after variable declaration.");
+        return new Statement.Var(name, initializer);
     }
 
-    private Expr addition()
+    private Expr expression()
     {
-        Expr expr = multiplication();
-
-        while(match(MINUS, PLUS))
-        {
-            Token operator = previous();
-            Expr right = multiplication();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
+        return assignment();
     }
 
-    private Expr multiplication()
+    private Expr assignment()
     {
-        Expr expr = unary();
+        Expr expr = parsePrecedence(CONDITIONAL);
 
-        while(match(SLASH, STAR))
+        if(match(EQUAL))
         {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
+            Token equals = previous();
+            Expr value = assignment();
+
+            if(expr instanceof Expr.Variable)
+            {
+                Token name = ((Expr.Variable)expr).name;
+                return new Expr.Assign(name, value);
+            }
+
+            error(equals, "Invalid assignment target.");
         }
         return expr;
     }
 
-    private Expr conditional()
+    /*
+    * Pratt parser for the expression grammar:
+    * conditional -> logic_or -> logic_and -> equality -> comparison -> addition -> multiplication
+    * -> unary -> call -> primary.
+    * Parses a prefix expression, then keeps folding in infix operators that bind at least as tightly as precedence.
+    * */
+    private Expr parsePrecedence(int precedence)
     {
-        Expr expr = equality();
+        Expr expr = prefix();
 
-        if(match(QUESTION))
+        while(infixPrecedence[peekType().ordinal()] >= precedence)
         {
-            Expr thenBranch = expression();
-            consume(COLON, "Expected ':' after then branch of conditional expression.");
-            Expr elseBranch = conditional();
-            expr = new Expr.Conditional(expr, thenBranch, elseBranch);
+            expr = infix(expr, advance());
         }
         return expr;
     }
 
-    private Expr unary()
+    private Expr prefix()
     {
-        if(match(BANG, MINUS))
+        switch (peekType())
         {
-            Token operator = previous();
-            Expr right = unary();
-            return new Expr.Unary(operator, right);
+            case FALSE:
+                advance();
+                return new Expr.Literal(false);
+            case TRUE:
+                advance();
+                return new Expr.Literal(true);
+            case NIL:
+                advance();
+                return new Expr.Literal(null);
+            case NUMBER:
+            case STRING:
+                return new Expr.Literal(advance().literal);
+            case IDENTIFIER:
+                return new Expr.Variable(advance());
+            case LEFT_PAREN:
+            {
+                advance();
+                Expr expr = expression();
+                consume(RIGHT_PAREN, "Expect ')' after expression.");
+                return new Expr.Grouping(expr);
+            }
+            case BANG:
+            case MINUS:
+            {
+                Token operator = advance();
+                Expr right = parsePrecedence(UNARY);
+                return new Expr.Unary(operator, right);
+            }
+            // A binary operator with no left operand: report it, then parse and discard the right operand
+            case BANG_EQUAL:
+            case EQUAL_EQUAL:
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+            case PLUS:
+            case SLASH:
+            case STAR:
+            {
+                Token operator = advance();
+                error(operator, missing_left_operand);
+                parsePrecedence(infixPrecedence[operator.type.ordinal()]);
+                return null;
+            }
+            default:
+                throw error(peek(), "Expect expression.");
         }
-        return primary();
     }
 
-
-    private Expr primary()
+    private Expr infix(Expr left, Token operator)
     {
-        if(match(FALSE))
-        {
-            return new Expr.Literal(false);
-        }
-
-        if(match(TRUE))
-        {
-            return new Expr.Literal(true);
-        }
-
-        if(match(NIL))
-        {
-            return new Expr.Literal(null);
-        }
-
-        if(match(NUMBER, STRING))
-        {
-            return new Expr.Literal(previous().literal);
-        }
-
-        if(match(IDENTIFIER))
-        {
-            return new Expr.Variable(previous());
-        }
-
-        if(match(LEFT_PAREN))
-        {
-            Expr expr = expression();
-            consume(RIGHT_PAREN, "Expect ')' after expression.");
-            return new Expr.Grouping(expr);
-        }
-
-        if(match(BANG_EQUAL, EQUAL_EQUAL))
-        {
-            error(previous(), missing_left_operand);
-            equality();
-            return null;
-        }
-
-        if(match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL))
+        switch (operator.type)
         {
-            error(previous(), missing_left_operand);
-            comparison();
-            return null;
-        }
-
-        if(match(PLUS))
-        {
-            error(previous(), missing_left_operand);
-            addition();
-            return null;
+            case QUESTION:
+            {
+                Expr thenBranch = expression();
+                consume(COLON, "Expected ':' after then branch of conditional expression.");
+                Expr elseBranch = parsePrecedence(CONDITIONAL);
+                return new Expr.Conditional(left, thenBranch, elseBranch);
+            }
+            case LEFT_PAREN:
+                return finishCall(left);
+            case OR:
+            case AND:
+            {
+                Expr right = parsePrecedence(infixPrecedence[operator.type.ordinal()] + 1);
+                return new Expr.Logical(left, operator, right);
+            }
+            default:
+            {
+                // Binary operators are left associative
+                Expr right = parsePrecedence(infixPrecedence[operator.type.ordinal()] + 1);
+                return new Expr.Binary(left, operator, right);
+            }
         }
+    }
 
-        if(match(SLASH, STAR))
+    private Expr finishCall(Expr callee)
+    {
+        List<Expr> arguments = new ArrayList<>();
+        if(!check(RIGHT_PAREN))
         {
-            error(previous(), missing_left_operand);
-            multiplication();
-            return null;
+            do
+            {
+                if(arguments.size() >= 255)
+                {
+                    error(peek(), "Can't have more than 255 arguments.");
+                }
+                arguments.add(expression());
+            }
+            while(match(COMMA));
         }
 
-        throw error(peek(), "Expect expression.");
+        Token paren = consume(RIGHT_PAREN, "Expect ')' after arguments.");
+        return new Expr.Call(callee, paren, arguments);
     }
 
     private Token consume(TokenType type, String message)
@@ -244,15 +538,12 @@ public class Parser
         throw error(peek(), message);
     }
 
-    private boolean match(TokenType... types)
+    private boolean match(TokenType type)
     {
-        for (TokenType type : types)
+        if(check(type))
         {
-            if(check(type))
-            {
-                advance();
-                return true;
-            }
+            advance();
+            return true;
         }
         return false;
     }
@@ -276,10 +567,16 @@ public class Parser
         return previous();
     }
 
+    // Type of the current token, EOF once this parser's range is used up
+    private TokenType peekType()
+    {
+        return isAtEnd() ? EOF : peek().type;
+    }
+
     //Checks if out of tokens to parse
     private boolean isAtEnd()
     {
-        return peek().type == EOF;
+        return current >= end || tokens.get(current).type == EOF;
     }
 
     //Returns current token that has yet to be consumed
@@ -297,6 +594,7 @@ public class Parser
     private ParseError error(Token token, String message)
     {
         ErrorLogger.error(token, message);
+        hadError = true;
         return new ParseError();
     }
 
@@ -322,6 +620,7 @@ public class Parser
                 case WHILE:
                 case PRINT:
                 case RETURN:
+                case IMPORT:
                     return;
             }
             advance();
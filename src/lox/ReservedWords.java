@@ -1,32 +1,33 @@
 package lox;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import static lox.TokenType.*;
 
+// A string switch compiles to a hashCode lookup, so no map is built or
+// populated when the class initializes on the scanner's first identifier.
 class ReservedWords
 {
-    public static final Map<String, TokenType> keywords;
-
-    static
+    static TokenType lookup(String word)
     {
-        keywords = new HashMap<>();
-        keywords.put("and",   AND);
-        keywords.put("class", CLASS);
-        keywords.put("else",  ELSE);
-        keywords.put("false", FALSE);
-        keywords.put("for",   FOR);
-        keywords.put("fun",   FUN);
-        keywords.put("if",    IF);
-        keywords.put("nil",   NIL);
-        keywords.put("or",    OR);
-        keywords.put("print", PRINT);
-        keywords.put("return",RETURN);
-        keywords.put("super", SUPER);
-        keywords.put("this",  THIS);
-        keywords.put("true",  TRUE);
-        keywords.put("var",   VAR);
-        keywords.put("while", WHILE);
+        switch (word)
+        {
+            case "and":    return AND;
+            case "class":  return CLASS;
+            case "else":   return ELSE;
+            case "false":  return FALSE;
+            case "for":    return FOR;
+            case "fun":    return FUN;
+            case "if":     return IF;
+            case "import": return IMPORT;
+            case "nil":    return NIL;
+            case "or":     return OR;
+            case "print":  return PRINT;
+            case "return": return RETURN;
+            case "super":  return SUPER;
+            case "this":   return THIS;
+            case "true":   return TRUE;
+            case "var":    return VAR;
+            case "while":  return WHILE;
+            default:       return null;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,13 @@
+package lox;
+
+// Unwinds the interpreter back to the function call. No stack trace is needed.
+class Return extends RuntimeException
+{
+    final Object value;
+
+    Return(Object value)
+    {
+        super(null, null, false, false);
+        this.value = value;
+    }
+}
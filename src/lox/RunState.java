@@ -0,0 +1,54 @@
+package lox;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.function.Supplier;
+
+/*
+* Where errors are reported and whether any occurred, for the run on the current thread.
+* Tasks spawned by a script and runs served by LoxServer each get their own, so one
+* task's runtime error does not mark another's run as failed.
+* */
+class RunState
+{
+    private static final ThreadLocal<RunState> current = ThreadLocal.withInitial(() -> new RunState(System.err));
+
+    final PrintStream err;
+    boolean hadError = false;
+    boolean hadRuntimeError = false;
+    final StringTable strings;
+    // Where syntax errors go instead of err while set, as LoxDocument does
+    List<Diagnostic> diagnostics;
+
+    RunState(PrintStream err)
+    {
+        this(err, new StringTable());
+    }
+
+    // For a task of the same run, which shares its strings
+    RunState(PrintStream err, StringTable strings)
+    {
+        this.err = err;
+        this.strings = strings;
+    }
+
+    static RunState current()
+    {
+        return current.get();
+    }
+
+    // Runs body with state as this thread's run state, then puts the previous one back
+    static <T> T with(RunState state, Supplier<T> body)
+    {
+        RunState previous = current.get();
+        current.set(state);
+        try
+        {
+            return body.get();
+        }
+        finally
+        {
+            current.set(previous);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package lox;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import static lox.TokenType.*;
 
@@ -9,15 +10,26 @@ public class Scanner
 
     private final String source;
     private final List<Token> tokens = new ArrayList<>();
+    private final StringTable strings = RunState.current().strings;
     private int start = 0;
     private int current = 0;
     private int line = 1;
+    // Where each token starts in source, for LoxDocument and for function bodies parsed on first call
+    private int[] offsets = new int[256];
 
     Scanner(String source)
     {
         this.source = source;
     }
 
+    // Scans on demand with scanNext, from offset, which must be at a token boundary on the given line
+    Scanner(String source, int offset, int line)
+    {
+        this.source = source;
+        this.current = offset;
+        this.line = line;
+    }
+
     List<Token> scanTokens()
     {
         while (!isAtEnd())
@@ -30,6 +42,51 @@ public class Scanner
         return tokens;
     }
 
+    // Scans the tokens that start before end, then adds EOF
+    List<Token> scanTokens(int end)
+    {
+        while(current < end && !isAtEnd())
+        {
+            start = current;
+            scanToken();
+        }
+
+        tokens.add(new Token(EOF, "", null, line));
+        return tokens;
+    }
+
+    // Scans until one more token has been added; at the end of the source that token is EOF
+    void scanNext()
+    {
+        int count = tokens.size();
+        while(tokens.size() == count)
+        {
+            if(isAtEnd())
+            {
+                start = current;
+                add(new Token(EOF, "", null, line));
+                return;
+            }
+            start = current;
+            scanToken();
+        }
+    }
+
+    List<Token> tokens()
+    {
+        return tokens;
+    }
+
+    int offset(int index)
+    {
+        return offsets[index];
+    }
+
+    String source()
+    {
+        return source;
+    }
+
     private void scanToken()
     {
         char c = nextToken();
@@ -57,10 +114,7 @@ public class Scanner
                 // if so take the rest of the tokens in the line.
                 if(match('/'))
                 {
-                    while(peek() != '\n' && !isAtEnd())
-                    {
-                        nextToken();
-                    }
+                    current = find('\n');
                 }
                 else if(match('*'))
                 {
@@ -71,13 +125,14 @@ public class Scanner
                     addToken(SLASH);
                 }
                 break;
+            case '\n':
+                line++;
+                skipWhitespace();
+                break;
             case ' ':
             case '\r':
             case '\t':
-                // Ignore whitespace
-                break;
-            case '\n':
-                line++;
+                skipWhitespace();
                 break;
             case '"':
                 string();
@@ -107,34 +162,38 @@ public class Scanner
         }
 
         String word  = source.substring(start, current);
-        TokenType type = ReservedWords.keywords.get(word);
+        TokenType type = ReservedWords.lookup(word);
 
         if(type == null)
         {
-            type = IDENTIFIER;
+            // Names are interned so environment lookups match them by reference
+            add(new Token(IDENTIFIER, strings.intern(word), null, line));
+            return;
         }
 
         addToken(type);
     }
 
+    // Comments and strings end at one character, which find looks for with String.indexOf.
+    // HotSpot compiles that to vector instructions, so long comments and literals are skipped
+    // many characters at a time instead of going through peek and nextToken for each.
+
+    // The comment ends at its first '*', which must be followed by '/'
     private void blockComment()
     {
-        while(!isAtEnd())
+        // A "/*" that ends the source is not reported
+        if(isAtEnd())
         {
-            while(!match('*') && !isAtEnd())
-            {
-                if(peek() == '\n')
-                {
-                    line++;
-                }
-                nextToken();
-            }
+            return;
+        }
 
-            if(!match('/'))
-            {
-                ErrorLogger.error(line, "Comment does not terminate.");
-            }
-            break;
+        int star = find('*');
+        line += newlines(current, star);
+        current = star;
+
+        if(!match('*') || !match('/'))
+        {
+            ErrorLogger.error(line, "Comment does not terminate.");
         }
     }
 
@@ -158,19 +217,14 @@ public class Scanner
         }
 
         addToken(TokenType.NUMBER,
-                Double.parseDouble(source.substring(start, current)));
+                Numbers.parse(source.substring(start, current)));
     }
 
     private void string()
     {
-        while(peek() != '"' && !isAtEnd())
-        {
-            if(peek() == '\n')
-            {
-                line++;
-            }
-            nextToken();
-        }
+        int quote = find('"');
+        line += newlines(current, quote);
+        current = quote;
 
         if(isAtEnd())
         {
@@ -183,7 +237,7 @@ public class Scanner
 
         //Trim surrounding quotes
         String value = source.substring(start + 1, current -1);
-        addToken(TokenType.STRING, value);
+        addToken(TokenType.STRING, strings.intern(value));
     }
 
     private void addToken(TokenType type)
@@ -194,7 +248,52 @@ public class Scanner
     private void addToken(TokenType type, Object literal)
     {
         String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        add(new Token(type, text, literal, line));
+    }
+
+    private void add(Token token)
+    {
+        if(tokens.size() == offsets.length)
+        {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[tokens.size()] = start;
+        tokens.add(token);
+    }
+
+    // Index of the next c from current, or the end of the source
+    private int find(char c)
+    {
+        int index = source.indexOf(c, current);
+        return index < 0 ? source.length() : index;
+    }
+
+    private int newlines(int from, int to)
+    {
+        int count = 0;
+        for(int i = source.indexOf('\n', from, to); i >= 0; i = source.indexOf('\n', i + 1, to))
+        {
+            count++;
+        }
+        return count;
+    }
+
+    // Consumes the rest of a run of whitespace, such as a line's indentation, without a token per character
+    private void skipWhitespace()
+    {
+        while(current < source.length())
+        {
+            char c = source.charAt(current);
+            if(c == '\n')
+            {
+                line++;
+            }
+            else if(c != ' ' && c != '\r' && c != '\t')
+            {
+                return;
+            }
+            current++;
+        }
     }
 
     private boolean isAlpha(char c)
@@ -0,0 +1,118 @@
+package lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/*
+* Saves the global environment left behind by a prelude so later runs can
+* start from it instead of scanning, parsing and executing the prelude again.
+* Java serialization keeps shared references, so a string or syntax tree reachable
+* from several globals is written once and restored as one object.
+* A snapshot is written to a temporary file and moved into place, so a failed save
+* leaves any earlier snapshot as it was.
+* */
+class Snapshot
+{
+    private static final int MAGIC = 0x4C4F5853; // "LOXS"
+    private static final int VERSION = 6;
+
+    // Snapshots only ever hold interpreter state, so anything else in the stream is rejected.
+    // Scopes are ConcurrentHashMaps, which serialize with lock segments.
+    private static final ObjectInputFilter FILTER =
+            ObjectInputFilter.Config.createFilter("lox.*;java.lang.*;java.util.*;"
+                    + "java.util.concurrent.ConcurrentHashMap*;java.util.concurrent.locks.*;!*");
+
+    static void write(Path path, Environment globals) throws IOException
+    {
+        Path target = path.toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName() + ".", ".tmp");
+        try
+        {
+            try(ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))))
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeObject(globals);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (NotSerializableException e)
+        {
+            throw new IOException(unsavable(globals), e);
+        }
+        finally
+        {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Writes each global on its own to find one that holds, or reaches, a value that cannot be saved
+    private static String unsavable(Environment globals) throws IOException
+    {
+        for(String name : globals.names())
+        {
+            Probe probe = new Probe();
+            try
+            {
+                probe.writeObject(globals.lookup(name));
+            }
+            catch (NotSerializableException e)
+            {
+                return "Global '" + name + "' cannot be saved in a snapshot: it holds or refers to "
+                        + Interpreter.stringify(probe.rejected) + ".";
+            }
+        }
+        return "A global cannot be saved in a snapshot.";
+    }
+
+    // Discards what it writes, remembering the last object serialization will reject
+    private static class Probe extends ObjectOutputStream
+    {
+        Object rejected;
+
+        Probe() throws IOException
+        {
+            super(OutputStream.nullOutputStream());
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object object)
+        {
+            if(!(object instanceof Serializable))
+            {
+                rejected = object;
+            }
+            return object;
+        }
+    }
+
+    static Environment read(Path path) throws IOException
+    {
+        try(ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(path))))
+        {
+            in.setObjectInputFilter(FILTER);
+
+            if(in.readInt() != MAGIC || in.readInt() != VERSION)
+            {
+                throw new IOException("Not a snapshot for this version of jlox: " + path);
+            }
+
+            return (Environment) in.readObject();
+        }
+        catch (ClassNotFoundException | ClassCastException e)
+        {
+            throw new IOException("Corrupt snapshot: " + path, e);
+        }
+    }
+}
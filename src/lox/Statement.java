@@ -1,21 +1,36 @@
 package lox;
 
-abstract class Statement {
+import java.io.Serializable;
+import java.util.List;
+
+// Serializable so function bodies can be stored in interpreter snapshots
+abstract class Statement implements Serializable {
     interface Visitor<R>
     {
         R visitPrintStmt(Print stmt);
         R visitExpressionStmt(Expression stmt);
-        R visitVariableStmt(Expression stmt);
+        R visitVarStmt(Var stmt);
+        R visitBlockStmt(Block stmt);
+        R visitFunctionStmt(Function stmt);
+        R visitReturnStmt(Return stmt);
+        R visitIfStmt(If stmt);
+        R visitWhileStmt(While stmt);
+        R visitImportStmt(Import stmt);
     }
 
+    // Set after parsing by an analysis pass or the interpreter
+    transient int coverageSlot;
+
     abstract <R> R accept(Visitor<R> visitor);
 
     static class Print extends Statement
     {
+        final Token keyword;
         final Expr expression;
 
-        Print(Expr expression)
+        Print(Token keyword, Expr expression)
         {
+            this.keyword = keyword;
             this.expression = expression;
         }
 
@@ -54,8 +69,123 @@ abstract class Statement {
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
-            return null;
+        <R> R accept(Visitor<R> visitor)
+        {
+            return visitor.visitVarStmt(this);
+        }
+    }
+
+    static class Block extends Statement
+    {
+        final List<Statement> statements;
+
+        Block(List<Statement> statements)
+        {
+            this.statements = statements;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor)
+        {
+            return visitor.visitBlockStmt(this);
+        }
+    }
+
+    static class Function extends Statement
+    {
+        final Token name;
+        final List<Token> params;
+        final FunctionBody body;
+
+        Function(Token name, List<Token> params, FunctionBody body)
+        {
+            this.name = name;
+            this.params = params;
+            this.body = body;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor)
+        {
+            return visitor.visitFunctionStmt(this);
+        }
+    }
+
+    static class Return extends Statement
+    {
+        final Token keyword;
+        final Expr value;
+
+        Return(Token keyword, Expr value)
+        {
+            this.keyword = keyword;
+            this.value = value;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor)
+        {
+            return visitor.visitReturnStmt(this);
+        }
+    }
+
+    static class If extends Statement
+    {
+        final Expr condition;
+        final Statement thenBranch;
+        final Statement elseBranch;
+
+        If(Expr condition, Statement thenBranch, Statement elseBranch)
+        {
+            this.condition = condition;
+            this.thenBranch = thenBranch;
+            this.elseBranch = elseBranch;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor)
+        {
+            return visitor.visitIfStmt(this);
+        }
+    }
+
+    static class While extends Statement
+    {
+        final Token keyword;
+        final Expr condition;
+        final Statement body;
+        // Set after parsing by an analysis pass or the interpreter
+        transient LoopTrace trace;
+
+        While(Token keyword, Expr condition, Statement body)
+        {
+            this.keyword = keyword;
+            this.condition = condition;
+            this.body = body;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor)
+        {
+            return visitor.visitWhileStmt(this);
+        }
+    }
+
+    static class Import extends Statement
+    {
+        final Token keyword;
+        final Token path;
+
+        Import(Token keyword, Token path)
+        {
+            this.keyword = keyword;
+            this.path = path;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor)
+        {
+            return visitor.visitImportStmt(this);
         }
     }
 }
@@ -0,0 +1,83 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Immutable mirror of Statement, built once its analysis passes have run
+sealed interface StmtNode
+{
+    record Print(Token keyword, ExprNode expression) implements StmtNode {}
+    record Expression(ExprNode expression) implements StmtNode {}
+    record Var(Token name, ExprNode initializer) implements StmtNode {}
+    record Block(List<StmtNode> statements) implements StmtNode {}
+    record Function(Token name, List<Token> params, FunctionBody body) implements StmtNode {}
+    record Return(Token keyword, ExprNode value) implements StmtNode {}
+    record If(ExprNode condition, StmtNode thenBranch, StmtNode elseBranch) implements StmtNode {}
+    record While(Token keyword, ExprNode condition, StmtNode body) implements StmtNode {}
+    record Import(Token keyword, Token path) implements StmtNode {}
+
+    static StmtNode of(Statement node)
+    {
+        if(node == null)
+        {
+            return null;
+        }
+
+        if(node instanceof Statement.Print printNode)
+        {
+            return new Print(printNode.keyword, ExprNode.of(printNode.expression));
+        }
+
+        if(node instanceof Statement.Expression expressionNode)
+        {
+            return new Expression(ExprNode.of(expressionNode.expression));
+        }
+
+        if(node instanceof Statement.Var varNode)
+        {
+            return new Var(varNode.name, ExprNode.of(varNode.initializer));
+        }
+
+        if(node instanceof Statement.Block blockNode)
+        {
+            return new Block(StmtNode.ofAll(blockNode.statements));
+        }
+
+        if(node instanceof Statement.Function functionNode)
+        {
+            return new Function(functionNode.name, functionNode.params, functionNode.body);
+        }
+
+        if(node instanceof Statement.Return returnNode)
+        {
+            return new Return(returnNode.keyword, ExprNode.of(returnNode.value));
+        }
+
+        if(node instanceof Statement.If ifNode)
+        {
+            return new If(ExprNode.of(ifNode.condition), StmtNode.of(ifNode.thenBranch), StmtNode.of(ifNode.elseBranch));
+        }
+
+        if(node instanceof Statement.While whileNode)
+        {
+            return new While(whileNode.keyword, ExprNode.of(whileNode.condition), StmtNode.of(whileNode.body));
+        }
+
+        if(node instanceof Statement.Import importNode)
+        {
+            return new Import(importNode.keyword, importNode.path);
+        }
+
+        throw new IllegalArgumentException("Unknown Statement: " + node.getClass());
+    }
+
+    static List<StmtNode> ofAll(List<Statement> nodes)
+    {
+        List<StmtNode> converted = new ArrayList<>(nodes.size());
+        for(Statement node : nodes)
+        {
+            converted.add(of(node));
+        }
+        return converted;
+    }
+}
@@ -0,0 +1,31 @@
+package lox;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/*
+* Weak intern table for the strings of one run, so that equal string literals and
+* identifiers share a single instance. Comparing two of them, whether in isEqual or as
+* Environment and LoxMap keys, then succeeds on the reference check before any
+* characters are compared. Strings made at run time are not interned, and compare by
+* content as before. An entry goes away once nothing but the table refers to its string.
+* */
+class StringTable
+{
+    private final Map<String, WeakReference<String>> strings = new WeakHashMap<>();
+
+    // Lazily parsed function bodies may be scanned on several threads of one run
+    synchronized String intern(String value)
+    {
+        WeakReference<String> reference = strings.get(value);
+        String interned = reference == null ? null : reference.get();
+        if(interned != null)
+        {
+            return interned;
+        }
+
+        strings.put(value, new WeakReference<>(value));
+        return value;
+    }
+}
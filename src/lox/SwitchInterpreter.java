@@ -0,0 +1,315 @@
+package lox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+* Evaluates the sealed ExprNode/StmtNode records with pattern-matching switches,
+* as an alternative to Interpreter's double dispatch through accept and a visit method.
+* Semantics and error messages are the same as Interpreter's.
+* */
+class SwitchInterpreter implements ExecutionContext
+{
+    final Environment globals;
+    private Environment environment;
+    private final PrintStream out;
+    private Budget budget = Budget.unlimited();
+    private Isolate isolate;
+    private Imports imports = new Imports();
+
+    SwitchInterpreter(PrintStream out)
+    {
+        this(out, Natives.globals());
+    }
+
+    SwitchInterpreter(PrintStream out, Environment globals)
+    {
+        this.globals = globals;
+        this.environment = globals;
+        this.out = out;
+    }
+
+    void setBudget(Budget budget)
+    {
+        this.budget = budget;
+    }
+
+    @Override
+    public Environment globals()
+    {
+        return globals;
+    }
+
+    @Override
+    public synchronized Isolate isolate()
+    {
+        if(isolate == null)
+        {
+            isolate = Isolate.host();
+        }
+        return isolate;
+    }
+
+    @Override
+    public SwitchInterpreter fork()
+    {
+        SwitchInterpreter forked = new SwitchInterpreter(out, globals);
+        forked.budget = budget.fork();
+        forked.isolate = isolate();
+        forked.imports = imports.fork();
+        return forked;
+    }
+
+    @Override
+    public void finishFork()
+    {
+        budget.release();
+    }
+
+    @Override
+    public SwitchInterpreter forIsolate(Isolate isolate)
+    {
+        SwitchInterpreter isolated = new SwitchInterpreter(out, Natives.globals());
+        isolated.budget = Lox.newBudget();
+        isolated.isolate = isolate;
+        return isolated;
+    }
+
+    @Override
+    public void runScript(List<Statement> statements)
+    {
+        interpret(StmtNode.ofAll(statements));
+    }
+
+    @Override
+    public void executeBody(FunctionBody body, Environment environment)
+    {
+        executeBlock(body.nodes(), environment);
+    }
+
+    void interpret(List<StmtNode> stmts)
+    {
+        try
+        {
+            for(StmtNode stmt : stmts)
+            {
+                execute(stmt);
+            }
+        }
+        catch (RunTimeError error)
+        {
+            ErrorLogger.runTimeError(error);
+        }
+    }
+
+    private void execute(StmtNode stmt)
+    {
+        switch (stmt)
+        {
+            case StmtNode.Print print -> out.println(Interpreter.stringify(evaluate(print.expression())));
+            case StmtNode.Expression expression -> evaluate(expression.expression());
+            case StmtNode.Var var ->
+            {
+                Object value = var.initializer() == null ? null : evaluate(var.initializer());
+                environment.define(var.name().lexeme, value);
+            }
+            case StmtNode.Block block -> executeBlock(block.statements(), new Environment(environment));
+            case StmtNode.Function function -> environment.define(function.name().lexeme,
+                    new LoxFunction(function.name(), function.params(), function.body(), environment));
+            case StmtNode.Return ret ->
+                    throw new Return(ret.value() == null ? null : evaluate(ret.value()));
+            case StmtNode.If ifStmt ->
+            {
+                if(Interpreter.isTruthy(evaluate(ifStmt.condition())))
+                {
+                    execute(ifStmt.thenBranch());
+                }
+                else if(ifStmt.elseBranch() != null)
+                {
+                    execute(ifStmt.elseBranch());
+                }
+            }
+            case StmtNode.While loop ->
+            {
+                while(Interpreter.isTruthy(evaluate(loop.condition())))
+                {
+                    execute(loop.body());
+                    budget.tick(loop.keyword());
+                }
+            }
+            case StmtNode.Import module ->
+            {
+                Module loaded = Module.load(module.path());
+                environment.defineAll(imports.scope(loaded, module.path(), globals, scope -> executeBlock(loaded.nodes(), scope)));
+            }
+        }
+    }
+
+    void executeBlock(List<StmtNode> statements, Environment environment)
+    {
+        Environment previous = this.environment;
+        try
+        {
+            this.environment = environment;
+
+            for(StmtNode statement : statements)
+            {
+                execute(statement);
+            }
+        }
+        finally
+        {
+            this.environment = previous;
+        }
+    }
+
+    private Object evaluate(ExprNode expr)
+    {
+        return switch (expr)
+        {
+            case ExprNode.Binary binary -> binary(binary);
+            case ExprNode.Grouping grouping -> evaluate(grouping.expression());
+            case ExprNode.Literal literal -> literal.value();
+            case ExprNode.Unary unary -> unary(unary);
+            // Same result as Interpreter.visitConditionalExpr
+            case ExprNode.Conditional conditional -> evaluate(conditional.thenBranch());
+            case ExprNode.Variable variable -> environment.get(variable.name());
+            case ExprNode.Call call -> call(call);
+            case ExprNode.Assign assign ->
+            {
+                Object value = evaluate(assign.value());
+                environment.assign(assign.name(), value);
+                yield value;
+            }
+            case ExprNode.Logical logical -> logical(logical);
+        };
+    }
+
+    private Object binary(ExprNode.Binary expr)
+    {
+        Object left = evaluate(expr.left());
+        Object right = evaluate(expr.right());
+
+        switch (expr.operator().type)
+        {
+            case GREATER:
+                checkNumberOperands(expr, left, right);
+                return Numbers.greater(left, right);
+            case GREATER_EQUAL:
+                checkNumberOperands(expr, left, right);
+                return Numbers.greaterEqual(left, right);
+            case LESS:
+                checkNumberOperands(expr, left, right);
+                return Numbers.less(left, right);
+            case LESS_EQUAL:
+                checkNumberOperands(expr, left, right);
+                return Numbers.lessEqual(left, right);
+            case BANG_EQUAL:
+                return !Interpreter.isEqual(left, right);
+            case EQUAL_EQUAL:
+                return Interpreter.isEqual(left, right);
+            case MINUS:
+                checkNumberOperands(expr, left, right);
+                return Numbers.subtract(left, right);
+            // As in Interpreter, the annotation only picks which check comes first
+            case PLUS:
+                if(expr.operands() == LoxType.STRING && left instanceof String && right instanceof String)
+                {
+                    return (String)left + (String)right;
+                }
+
+                if(Numbers.isNumber(left) && Numbers.isNumber(right))
+                {
+                    return Numbers.add(left, right);
+                }
+
+                if(left instanceof String && right instanceof String)
+                {
+                    return (String)left + (String)right;
+                }
+
+                throw new RunTimeError(expr.operator(), "Operands must be two numbers or two strings.");
+            case SLASH:
+                checkNumberOperands(expr, left, right);
+                return Numbers.divide(left, right);
+            case STAR:
+                checkNumberOperands(expr, left, right);
+                return Numbers.multiply(left, right);
+            default:
+                return null;
+        }
+    }
+
+    private Object logical(ExprNode.Logical expr)
+    {
+        Object left = evaluate(expr.left());
+        boolean truthy = Interpreter.isTruthy(left);
+
+        if(expr.operator().type == TokenType.OR ? truthy : !truthy)
+        {
+            return left;
+        }
+        return evaluate(expr.right());
+    }
+
+    private Object unary(ExprNode.Unary expr)
+    {
+        Object right = evaluate(expr.right());
+
+        switch (expr.operator().type)
+        {
+            case BANG:
+                return !Interpreter.isTruthy(right);
+            case MINUS:
+                if(!Numbers.isNumber(right))
+                {
+                    throw new RunTimeError(expr.operator(), "Operand must be a number.");
+                }
+                return Numbers.negate(right);
+            default:
+                return null;
+        }
+    }
+
+    private Object call(ExprNode.Call expr)
+    {
+        Object callee = evaluate(expr.callee());
+
+        List<Object> arguments = new ArrayList<>(expr.arguments().size());
+        for(ExprNode argument : expr.arguments())
+        {
+            arguments.add(evaluate(argument));
+        }
+
+        if(!(callee instanceof LoxCallable function))
+        {
+            throw new RunTimeError(expr.paren(), "Can only call functions and classes.");
+        }
+
+        if(arguments.size() != function.arity())
+        {
+            throw new RunTimeError(expr.paren(),
+                    "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+        }
+
+        budget.tick(expr.paren());
+        try
+        {
+            return function.call(this, arguments);
+        }
+        catch (NativeError error)
+        {
+            throw new RunTimeError(expr.paren(), error.getMessage());
+        }
+    }
+
+    private void checkNumberOperands(ExprNode.Binary expr, Object left, Object right)
+    {
+        if(Numbers.isNumber(left) && Numbers.isNumber(right))
+        {
+            return;
+        }
+        throw new RunTimeError(expr.operator(), "Operands must be a number.");
+    }
+}
@@ -18,6 +18,7 @@ enum TokenType {
     // Keywords.
     AND, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR,
     PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE,
+    IMPORT,
 
     EOF
 }  
\ No newline at end of file
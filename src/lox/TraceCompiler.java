@@ -0,0 +1,434 @@
+package lox;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+* Compiles a hot while loop into a tree of closures over unboxed double slots.
+* Only loops built from numeric arithmetic, comparisons, assignments, local var
+* declarations, blocks, if, print and nested while loops are compiled. Without calls
+* the loop itself cannot change the type of a variable, and LoopTrace only enters it when
+* no task could be touching the variables it uses from outside, so once those hold numbers
+* on entry, every variable keeps holding a number until it exits.
+* That entry check is the trace's only guard.
+* Double arithmetic gives the same values as Numbers does for Long operands, so the
+* compiled loop computes exactly what the tree walker would.
+* Literal subexpressions are folded, and expression statements without effects are dropped.
+* */
+class TraceCompiler
+{
+    interface Num
+    {
+        double eval(Frame frame);
+    }
+
+    interface Cond
+    {
+        boolean eval(Frame frame);
+    }
+
+    interface Step
+    {
+        void run(Frame frame);
+    }
+
+    // State for one run of a compiled loop
+    static class Frame
+    {
+        final double[] slots;
+        final Budget budget;
+        final PrintStream out;
+
+        Frame(int slots, Budget budget, PrintStream out)
+        {
+            this.slots = new double[slots];
+            this.budget = budget;
+            this.out = out;
+        }
+    }
+
+    // A variable the loop uses from an enclosing scope, loaded on entry and stored back on exit if assigned
+    static class Free
+    {
+        final Token name;
+        final int slot;
+        boolean assigned;
+
+        Free(Token name, int slot)
+        {
+            this.name = name;
+            this.slot = slot;
+        }
+    }
+
+    static class Loop
+    {
+        final List<Free> free;
+        final int slots;
+        final Step body;
+
+        Loop(List<Free> free, int slots, Step body)
+        {
+            this.free = free;
+            this.slots = slots;
+            this.body = body;
+        }
+    }
+
+    private static class Constant implements Num
+    {
+        final double value;
+
+        Constant(double value)
+        {
+            this.value = value;
+        }
+
+        @Override
+        public double eval(Frame frame)
+        {
+            return value;
+        }
+    }
+
+    // Thrown when the loop uses something the compiler does not handle
+    private static class Untraceable extends RuntimeException
+    {
+        Untraceable()
+        {
+            super(null, null, false, false);
+        }
+    }
+
+    private final Deque<Map<String, Integer>> scopes = new ArrayDeque<>();
+    private final Map<String, Free> free = new HashMap<>();
+    private final List<Free> freeList = new ArrayList<>();
+    private int slots = 0;
+
+    private TraceCompiler()
+    {
+    }
+
+    // Returns null if the loop cannot be compiled
+    static Loop compile(Statement.While loop)
+    {
+        TraceCompiler compiler = new TraceCompiler();
+        try
+        {
+            Step body = compiler.statement(loop);
+            return new Loop(compiler.freeList, compiler.slots, body);
+        }
+        catch (Untraceable e)
+        {
+            return null;
+        }
+    }
+
+    private Step statement(Statement statement)
+    {
+        switch (statement)
+        {
+            case Statement.Expression expression ->
+            {
+                Object value = expression(expression.expression);
+                if(!hasEffect(expression.expression))
+                {
+                    return frame -> {};
+                }
+                if(value instanceof Num num)
+                {
+                    return num::eval;
+                }
+                Cond cond = (Cond)value;
+                return cond::eval;
+            }
+            case Statement.Print print ->
+            {
+                Object value = expression(print.expression);
+                if(value instanceof Num num)
+                {
+                    return frame -> frame.out.println(Numbers.toString(box(num.eval(frame))));
+                }
+                Cond cond = (Cond)value;
+                return frame -> frame.out.println(cond.eval(frame));
+            }
+            case Statement.Var var ->
+            {
+                if(var.initializer == null)
+                {
+                    throw new Untraceable();
+                }
+                Num initializer = num(var.initializer);
+                int slot = slots++;
+                scopes.peek().put(var.name.lexeme, slot);
+                return frame -> frame.slots[slot] = initializer.eval(frame);
+            }
+            case Statement.Block block ->
+            {
+                scopes.push(new HashMap<>());
+                Step[] steps = new Step[block.statements.size()];
+                for(int i = 0; i < steps.length; i++)
+                {
+                    steps[i] = statement(block.statements.get(i));
+                }
+                scopes.pop();
+                return frame -> {
+                    for(Step step : steps)
+                    {
+                        step.run(frame);
+                    }
+                };
+            }
+            case Statement.If ifStmt ->
+            {
+                Cond condition = cond(ifStmt.condition);
+                Step thenBranch = statement(ifStmt.thenBranch);
+                Step elseBranch = ifStmt.elseBranch == null ? frame -> {} : statement(ifStmt.elseBranch);
+                return frame -> {
+                    if(condition.eval(frame))
+                    {
+                        thenBranch.run(frame);
+                    }
+                    else
+                    {
+                        elseBranch.run(frame);
+                    }
+                };
+            }
+            case Statement.While loop ->
+            {
+                Cond condition = cond(loop.condition);
+                Step body = statement(loop.body);
+                Token keyword = loop.keyword;
+                return frame -> {
+                    while(condition.eval(frame))
+                    {
+                        body.run(frame);
+                        frame.budget.tick(keyword);
+                    }
+                };
+            }
+            default -> throw new Untraceable();
+        }
+    }
+
+    // Compiles to a Num or a Cond
+    private Object expression(Expr expr)
+    {
+        switch (expr)
+        {
+            case Expr.Literal literal ->
+            {
+                if(Numbers.isNumber(literal.value))
+                {
+                    return new Constant(Numbers.toDouble(literal.value));
+                }
+                if(literal.value instanceof Boolean value)
+                {
+                    boolean constant = value;
+                    return (Cond)frame -> constant;
+                }
+                throw new Untraceable();
+            }
+            case Expr.Grouping grouping ->
+            {
+                return expression(grouping.expression);
+            }
+            case Expr.Variable variable ->
+            {
+                int slot = slot(variable.name, false);
+                return (Num)frame -> frame.slots[slot];
+            }
+            case Expr.Assign assign ->
+            {
+                Num value = num(assign.value);
+                int slot = slot(assign.name, true);
+                return (Num)frame -> frame.slots[slot] = value.eval(frame);
+            }
+            case Expr.Unary unary ->
+            {
+                Object operand = expression(unary.right);
+                if(unary.operator.type == TokenType.MINUS && operand instanceof Num num)
+                {
+                    if(num instanceof Constant constant)
+                    {
+                        return new Constant(-constant.value);
+                    }
+                    return (Num)frame -> -num.eval(frame);
+                }
+                if(unary.operator.type == TokenType.BANG)
+                {
+                    // Numbers are always truthy
+                    Cond cond = operand instanceof Num ? cond(unary.right) : (Cond)operand;
+                    return (Cond)frame -> !cond.eval(frame);
+                }
+                throw new Untraceable();
+            }
+            case Expr.Binary binary ->
+            {
+                return binary(binary);
+            }
+            case Expr.Logical logical ->
+            {
+                // Only and/or between booleans, so the result is a boolean too
+                if(!(expression(logical.left) instanceof Cond left) || !(expression(logical.right) instanceof Cond right))
+                {
+                    throw new Untraceable();
+                }
+                if(logical.operator.type == TokenType.OR)
+                {
+                    return (Cond)frame -> left.eval(frame) || right.eval(frame);
+                }
+                return (Cond)frame -> left.eval(frame) && right.eval(frame);
+            }
+            default -> throw new Untraceable();
+        }
+    }
+
+    private Object binary(Expr.Binary expr)
+    {
+        Object leftValue = expression(expr.left);
+        Object rightValue = expression(expr.right);
+
+        if(leftValue instanceof Cond left && rightValue instanceof Cond right)
+        {
+            switch (expr.operator.type)
+            {
+                case EQUAL_EQUAL:
+                    return (Cond)frame -> left.eval(frame) == right.eval(frame);
+                case BANG_EQUAL:
+                    return (Cond)frame -> left.eval(frame) != right.eval(frame);
+                default:
+                    throw new Untraceable();
+            }
+        }
+
+        if(!(leftValue instanceof Num left) || !(rightValue instanceof Num right))
+        {
+            throw new Untraceable();
+        }
+
+        if(left instanceof Constant a && right instanceof Constant b)
+        {
+            switch (expr.operator.type)
+            {
+                case PLUS:
+                    return new Constant(a.value + b.value);
+                case MINUS:
+                    return new Constant(a.value - b.value);
+                case STAR:
+                    return new Constant(a.value * b.value);
+                case SLASH:
+                    return new Constant(a.value / b.value);
+                default:
+                    break;
+            }
+        }
+
+        switch (expr.operator.type)
+        {
+            case PLUS:
+                return (Num)frame -> left.eval(frame) + right.eval(frame);
+            case MINUS:
+                return (Num)frame -> left.eval(frame) - right.eval(frame);
+            case STAR:
+                return (Num)frame -> left.eval(frame) * right.eval(frame);
+            case SLASH:
+                return (Num)frame -> left.eval(frame) / right.eval(frame);
+            case GREATER:
+                return (Cond)frame -> left.eval(frame) > right.eval(frame);
+            case GREATER_EQUAL:
+                return (Cond)frame -> left.eval(frame) >= right.eval(frame);
+            case LESS:
+                return (Cond)frame -> left.eval(frame) < right.eval(frame);
+            case LESS_EQUAL:
+                return (Cond)frame -> left.eval(frame) <= right.eval(frame);
+            // Numbers.equal compares bits, so NaN equals NaN and 0 differs from -0
+            case EQUAL_EQUAL:
+                return (Cond)frame -> Double.doubleToLongBits(left.eval(frame))
+                        == Double.doubleToLongBits(right.eval(frame));
+            case BANG_EQUAL:
+                return (Cond)frame -> Double.doubleToLongBits(left.eval(frame))
+                        != Double.doubleToLongBits(right.eval(frame));
+            default:
+                throw new Untraceable();
+        }
+    }
+
+    private Num num(Expr expr)
+    {
+        if(expression(expr) instanceof Num num)
+        {
+            return num;
+        }
+        throw new Untraceable();
+    }
+
+    // A number used as a condition is truthy, but is still evaluated for its assignments
+    private Cond cond(Expr expr)
+    {
+        Object value = expression(expr);
+        if(value instanceof Cond cond)
+        {
+            return cond;
+        }
+        Num num = (Num)value;
+        return frame -> {
+            num.eval(frame);
+            return true;
+        };
+    }
+
+    // Every compiled expression is pure apart from assignment
+    private static boolean hasEffect(Expr expr)
+    {
+        return switch (expr)
+        {
+            case Expr.Assign assign -> true;
+            case Expr.Grouping grouping -> hasEffect(grouping.expression);
+            case Expr.Unary unary -> hasEffect(unary.right);
+            case Expr.Binary binary -> hasEffect(binary.left) || hasEffect(binary.right);
+            case Expr.Logical logical -> hasEffect(logical.left) || hasEffect(logical.right);
+            default -> false;
+        };
+    }
+
+    private int slot(Token name, boolean assigned)
+    {
+        for(Map<String, Integer> scope : scopes)
+        {
+            Integer slot = scope.get(name.lexeme);
+            if(slot != null)
+            {
+                return slot;
+            }
+        }
+
+        Free variable = free.get(name.lexeme);
+        if(variable == null)
+        {
+            variable = new Free(name, slots++);
+            free.put(name.lexeme, variable);
+            freeList.add(variable);
+        }
+        variable.assigned |= assigned;
+        return variable.slot;
+    }
+
+    // Integral values go back as Long, as the tree walker would mostly have held them
+    static Object box(double value)
+    {
+        long integer = (long)value;
+        if(integer == value && Math.abs(integer) <= 1L << 53
+                && !(integer == 0 && Double.doubleToRawLongBits(value) != 0))
+        {
+            return integer;
+        }
+        return value;
+    }
+}
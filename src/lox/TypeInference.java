@@ -0,0 +1,418 @@
+package lox;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+* Flow-based type inference over parsed statements.
+* Variable types are tracked in declaration order through nested scopes, and
+* operators whose operands are proven numbers (or strings, for '+') are
+* annotated. The evaluators still check the types, since a task can assign a
+* variable at any time; for '+' the annotation decides which check comes first.
+* Code that may or may not run (branches, right operands of and/or) is analyzed
+* from a copy of the variable types and joined back. A call may assign any
+* variable a function can see, an import runs a module that may assign globals, and
+* a loop body may run any number of times, so all three forget every tracked type.
+* An import also defines names that are not known here, so its scope becomes opaque:
+* a name not declared in it may be the module's, and is unknown there and in inner
+* scopes, and an assignment to it may not reach an outer declaration of that name.
+* A function body is analyzed on its own when it is parsed: it may run after any
+* later assignment, so variables from enclosing scopes are unknown inside it.
+* */
+class TypeInference implements Expr.Visitor<LoxType>, Statement.Visitor<Void>
+{
+    static boolean report = false;
+    private static final AtomicInteger checkedOperations = new AtomicInteger();
+    private static final AtomicInteger provenOperations = new AtomicInteger();
+
+    private final Deque<Map<String, LoxType>> scopes = new ArrayDeque<>();
+    // Scopes that have run an import
+    private final Set<Map<String, LoxType>> opaque = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private TypeInference()
+    {
+        scopes.push(new HashMap<>());
+    }
+
+    static void analyze(List<Statement> statements)
+    {
+        new TypeInference().analyzeAll(statements);
+    }
+
+    static void printReport(PrintStream out)
+    {
+        int checked = checkedOperations.get();
+        int proven = provenOperations.get();
+        double percent = checked == 0 ? 0 : 100.0 * proven / checked;
+        out.printf("Type inference: %d of %d type-checked operations proven typed (%.1f%%)%n",
+                proven, checked, percent);
+    }
+
+    private void analyzeAll(List<Statement> statements)
+    {
+        for(Statement statement : statements)
+        {
+            statement.accept(this);
+        }
+    }
+
+    private LoxType infer(Expr expr)
+    {
+        return expr.accept(this);
+    }
+
+    // Infers an expression that may not be evaluated at all
+    private LoxType inferMaybe(Expr expr)
+    {
+        List<Map<String, LoxType>> before = snapshot();
+        LoxType type = infer(expr);
+        join(before);
+        return type;
+    }
+
+    private List<Map<String, LoxType>> snapshot()
+    {
+        List<Map<String, LoxType>> copy = new ArrayList<>(scopes.size());
+        for(Map<String, LoxType> scope : scopes)
+        {
+            copy.add(new HashMap<>(scope));
+        }
+        return copy;
+    }
+
+    private void restore(List<Map<String, LoxType>> snapshot)
+    {
+        Iterator<Map<String, LoxType>> saved = snapshot.iterator();
+        for(Map<String, LoxType> scope : scopes)
+        {
+            scope.clear();
+            scope.putAll(saved.next());
+        }
+    }
+
+    // Keeps only the types that are the same in the current state and the other path
+    private void join(List<Map<String, LoxType>> other)
+    {
+        Iterator<Map<String, LoxType>> saved = other.iterator();
+        for(Map<String, LoxType> scope : scopes)
+        {
+            Map<String, LoxType> otherScope = saved.next();
+            scope.replaceAll((name, type) -> type == otherScope.get(name) ? type : LoxType.UNKNOWN);
+        }
+    }
+
+    private void forgetAll()
+    {
+        for(Map<String, LoxType> scope : scopes)
+        {
+            scope.replaceAll((name, type) -> LoxType.UNKNOWN);
+        }
+    }
+
+    private void count(boolean proven)
+    {
+        if(report)
+        {
+            checkedOperations.incrementAndGet();
+            if(proven)
+            {
+                provenOperations.incrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public LoxType visitBinaryExpr(Expr.Binary expr)
+    {
+        LoxType left = infer(expr.left);
+        LoxType right = infer(expr.right);
+        boolean numbers = left == LoxType.NUMBER && right == LoxType.NUMBER;
+
+        switch (expr.operator.type)
+        {
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                annotate(expr, numbers);
+                return LoxType.BOOLEAN;
+            case BANG_EQUAL:
+            case EQUAL_EQUAL:
+                return LoxType.BOOLEAN;
+            case MINUS:
+            case SLASH:
+            case STAR:
+                annotate(expr, numbers);
+                return LoxType.NUMBER;
+            case PLUS:
+                if(numbers)
+                {
+                    annotate(expr, true);
+                    return LoxType.NUMBER;
+                }
+
+                if(left == LoxType.STRING && right == LoxType.STRING)
+                {
+                    expr.operands = LoxType.STRING;
+                    count(true);
+                    return LoxType.STRING;
+                }
+
+                count(false);
+                // When it does not throw, '+' with one known operand produces that operand's type
+                if(left == LoxType.NUMBER || right == LoxType.NUMBER)
+                {
+                    return LoxType.NUMBER;
+                }
+                if(left == LoxType.STRING || right == LoxType.STRING)
+                {
+                    return LoxType.STRING;
+                }
+                return LoxType.UNKNOWN;
+            default:
+                return LoxType.UNKNOWN;
+        }
+    }
+
+    private void annotate(Expr.Binary expr, boolean numbers)
+    {
+        if(numbers)
+        {
+            expr.operands = LoxType.NUMBER;
+        }
+        count(numbers);
+    }
+
+    @Override
+    public LoxType visitGroupingExpr(Expr.Grouping expr)
+    {
+        return infer(expr.expression);
+    }
+
+    @Override
+    public LoxType visitLiteralExpr(Expr.Literal expr)
+    {
+        if(expr.value == null)
+        {
+            return LoxType.NIL;
+        }
+
+        if(Numbers.isNumber(expr.value))
+        {
+            return LoxType.NUMBER;
+        }
+
+        if(expr.value instanceof String)
+        {
+            return LoxType.STRING;
+        }
+
+        if(expr.value instanceof Boolean)
+        {
+            return LoxType.BOOLEAN;
+        }
+
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitUnaryExpr(Expr.Unary expr)
+    {
+        LoxType right = infer(expr.right);
+
+        switch (expr.operator.type)
+        {
+            case BANG:
+                return LoxType.BOOLEAN;
+            case MINUS:
+                if(right == LoxType.NUMBER)
+                {
+                    expr.operand = LoxType.NUMBER;
+                }
+                count(right == LoxType.NUMBER);
+                return LoxType.NUMBER;
+            default:
+                return LoxType.UNKNOWN;
+        }
+    }
+
+    @Override
+    public LoxType visitConditionalExpr(Expr.Conditional expr)
+    {
+        inferMaybe(expr.expr);
+        LoxType thenType = inferMaybe(expr.thenBranch);
+        LoxType elseType = inferMaybe(expr.elseBranch);
+
+        return thenType == elseType ? thenType : LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitVariableExpr(Expr.Variable expr)
+    {
+        for(Map<String, LoxType> scope : scopes)
+        {
+            LoxType type = scope.get(expr.name.lexeme);
+            if(type != null)
+            {
+                return type;
+            }
+            if(opaque.contains(scope))
+            {
+                return LoxType.UNKNOWN;
+            }
+        }
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitCallExpr(Expr.Call expr)
+    {
+        infer(expr.callee);
+        for(Expr argument : expr.arguments)
+        {
+            infer(argument);
+        }
+
+        forgetAll();
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitAssignExpr(Expr.Assign expr)
+    {
+        LoxType type = infer(expr.value);
+
+        boolean throughImport = false;
+        for(Map<String, LoxType> scope : scopes)
+        {
+            if(scope.containsKey(expr.name.lexeme))
+            {
+                // Past an import the name may be the module's, so this declaration may keep its old value
+                scope.put(expr.name.lexeme, throughImport ? LoxType.UNKNOWN : type);
+                break;
+            }
+            throughImport |= opaque.contains(scope);
+        }
+        return type;
+    }
+
+    @Override
+    public LoxType visitLogicalExpr(Expr.Logical expr)
+    {
+        LoxType left = infer(expr.left);
+        LoxType right = inferMaybe(expr.right);
+
+        return left == right ? left : LoxType.UNKNOWN;
+    }
+
+    @Override
+    public Void visitPrintStmt(Statement.Print stmt)
+    {
+        infer(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Statement.Expression stmt)
+    {
+        infer(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Statement.Var stmt)
+    {
+        LoxType type = LoxType.NIL;
+        if(stmt.initializer != null)
+        {
+            type = infer(stmt.initializer);
+        }
+
+        scopes.peek().put(stmt.name.lexeme, type);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Statement.Block stmt)
+    {
+        scopes.push(new HashMap<>());
+        try
+        {
+            analyzeAll(stmt.statements);
+        }
+        finally
+        {
+            opaque.remove(scopes.pop());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Statement.Function stmt)
+    {
+        scopes.peek().put(stmt.name.lexeme, LoxType.UNKNOWN);
+
+        // Deferred bodies are analyzed by FunctionBody once they are parsed
+        if(stmt.body.isParsed())
+        {
+            analyze(stmt.body.statements());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Statement.Return stmt)
+    {
+        if(stmt.value != null)
+        {
+            infer(stmt.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Statement.If stmt)
+    {
+        infer(stmt.condition);
+
+        List<Map<String, LoxType>> before = snapshot();
+        stmt.thenBranch.accept(this);
+        List<Map<String, LoxType>> afterThen = snapshot();
+
+        restore(before);
+        if(stmt.elseBranch != null)
+        {
+            stmt.elseBranch.accept(this);
+        }
+        join(afterThen);
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Statement.Import stmt)
+    {
+        forgetAll();
+        opaque.add(scopes.peek());
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Statement.While stmt)
+    {
+        forgetAll();
+        infer(stmt.condition);
+        stmt.body.accept(this);
+        forgetAll();
+        return null;
+    }
+}
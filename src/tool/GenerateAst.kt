@@ -3,18 +3,53 @@ package tool
 import java.io.File
 import java.io.PrintWriter
 
+// Field lists are "Type name, ..." optionally followed by "| Type name, ..." for
+// mutable annotations that analysis passes fill in after parsing. A "transient"
+// annotation is runtime state: it is not serialized or copied into the sealed records.
+// Base annotations are declared once on the base class and shared by every node type.
 fun main()
 {
 
     var outputDir = "src/lox/"
-    defineAst(outputDir, "Expr",
-            listOf("Binary   : Expr left, Token operator, Expr right",
-                    "Grouping : Expr expression",
-                    "Literal  : Object value",
-                    "Unary    : Token operator, Expr right"))
+    var exprTypes = listOf("Binary      : Expr left, Token operator, Expr right | LoxType operands",
+                    "Grouping    : Expr expression",
+                    "Literal     : Object value",
+                    "Unary       : Token operator, Expr right | LoxType operand",
+                    "Conditional : Expr expr, Expr thenBranch, Expr elseBranch",
+                    "Variable    : Token name",
+                    "Call        : Expr callee, Token paren, List<Expr> arguments",
+                    "Assign      : Token name, Expr value",
+                    "Logical     : Expr left, Token operator, Expr right")
+    var stmtTypes = listOf("Print      : Token keyword, Expr expression",
+                    "Expression : Expr expression",
+                    "Var        : Token name, Expr initializer",
+                    "Block      : List<Statement> statements",
+                    "Function   : Token name, List<Token> params, FunctionBody body",
+                    "Return     : Token keyword, Expr value",
+                    "If         : Expr condition, Statement thenBranch, Statement elseBranch",
+                    "While      : Token keyword, Expr condition, Statement body | transient LoopTrace trace",
+                    "Import     : Token keyword, Token path")
+
+    defineAst(outputDir, "Expr", "Expr", exprTypes, listOf())
+    defineAst(outputDir, "Statement", "Stmt", stmtTypes, listOf("transient int coverageSlot"))
+
+    defineSealedAst(outputDir, "Expr", "ExprNode", exprTypes)
+    defineSealedAst(outputDir, "Statement", "StmtNode", stmtTypes)
 }
 
-fun defineAst(outputDir: String, baseName: String, types: List<String>)
+fun className(type: String) = type.split(":")[0].trim()
+
+fun fields(type: String) = type.split(":")[1].split("|")[0].trim().split(", ")
+
+fun annotations(type: String): List<String>
+{
+    var parts = type.split(":")[1].split("|")
+    return if (parts.size > 1) parts[1].trim().split(", ") else listOf()
+}
+
+fun recordAnnotations(type: String) = annotations(type).filter { !it.startsWith("transient ") }
+
+fun defineAst(outputDir: String, baseName: String, suffix: String, types: List<String>, baseAnnotations: List<String>)
 {
     var path = "$outputDir/$baseName.java"
     var writer = File(path).printWriter()
@@ -22,61 +57,172 @@ fun defineAst(outputDir: String, baseName: String, types: List<String>)
     writer.use{ out ->
         out.println("package lox;")
         out.println()
+        out.println("import java.io.Serializable;")
         out.println("import java.util.List;")
         out.println()
-        out.println("abstract class $baseName {")
+        out.println("// Serializable so function bodies can be stored in interpreter snapshots")
+        out.println("abstract class $baseName implements Serializable {")
+
+        defineVisitor(writer, suffix, types)
 
-        defineVisitor(writer, baseName, types)
+        if (baseAnnotations.isNotEmpty())
+        {
+            out.println()
+            out.println("    // Set after parsing by an analysis pass or the interpreter")
+            baseAnnotations.forEach()
+            {
+                out.println("    $it;")
+            }
+        }
 
-           types.forEach()
-           {
-               var className = it.split(":")[0].trim()
-               var fields = it.split(":")[1].trim()
-               defineType(writer, baseName, className, fields)
-           }
         out.println()
-        out.println("  abstract <R> R accept(Visitor<R> visitor);")
+        out.println("    abstract <R> R accept(Visitor<R> visitor);")
+
+        types.forEach()
+        {
+            out.println()
+            defineType(writer, baseName, suffix, it)
+        }
         out.println("}")
         out.close()
     }
 }
 
-fun defineVisitor(writer: PrintWriter, baseName: String, types: List<String>)
+fun defineVisitor(writer: PrintWriter, suffix: String, types: List<String>)
 {
-    writer.println("  interface Visitor<R>")
-    writer.println("  {")
+    writer.println("    interface Visitor<R>")
+    writer.println("    {")
     types.forEach()
     {
-        var typeName = it.split(":")[0].trim()
-        writer.println("    R visit$typeName$baseName($typeName ${baseName.toLowerCase()});")
+        var typeName = className(it)
+        writer.println("        R visit$typeName$suffix($typeName ${suffix.toLowerCase()});")
     }
-    writer.println("  }")
+    writer.println("    }")
 }
 
-fun defineType(writer: PrintWriter, baseName: String, className:String, fieldList: String)
+fun defineType(writer: PrintWriter, baseName: String, suffix: String, type: String)
 {
-    writer.println(" static class $className extends $baseName")
-    writer.println(" {")
-    var fields = fieldList.split(", ")
+    var className = className(type)
+    var fields = fields(type)
+    var annotations = annotations(type)
+
+    writer.println("    static class $className extends $baseName")
+    writer.println("    {")
 
     fields.forEach()
     {
-        writer.println("    final $it;")
+        writer.println("        final $it;")
+    }
+    if (annotations.isNotEmpty())
+    {
+        writer.println("        // Set after parsing by an analysis pass or the interpreter")
+        annotations.forEach()
+        {
+            writer.println("        $it;")
+        }
     }
+    writer.println()
+
     //Constructor:
-    writer.println("    $className($fieldList)")
-    writer.println("    {")
+    writer.println("        $className(${fields.joinToString(", ")})")
+    writer.println("        {")
     fields.forEach()
     {
         var name = it.split(" ")[1]
-        writer.println("        this.$name = $name;")
+        writer.println("            this.$name = $name;")
     }
-
-    writer.println("    }")
+    writer.println("        }")
     writer.println()
-    writer.println("    <R> R accept(Visitor<R> visitor)")
-    writer.println("    {")
-    writer.println("        return visitor.visit$className$baseName(this);")
+    writer.println("        @Override")
+    writer.println("        <R> R accept(Visitor<R> visitor)")
+    writer.println("        {")
+    writer.println("            return visitor.visit$className$suffix(this);")
+    writer.println("        }")
     writer.println("    }")
-    writer.println(" }")
+}
+
+// Sealed interface of records mirroring a visitor AST, for evaluators that
+// dispatch with a pattern-matching switch. Annotations are copied in as components.
+fun defineSealedAst(outputDir: String, baseName: String, nodeName: String, types: List<String>)
+{
+    var path = "$outputDir/$nodeName.java"
+    var writer = File(path).printWriter()
+
+    writer.use{ out ->
+        out.println("package lox;")
+        out.println()
+        out.println("import java.util.ArrayList;")
+        out.println("import java.util.List;")
+        out.println()
+        out.println("// Immutable mirror of $baseName, built once its analysis passes have run")
+        out.println("sealed interface $nodeName")
+        out.println("{")
+
+        types.forEach()
+        {
+            var components = (fields(it) + recordAnnotations(it)).map { field -> nodeType(field) }
+            out.println("    record ${className(it)}(${components.joinToString(", ")}) implements $nodeName {}")
+        }
+
+        out.println()
+        out.println("    static $nodeName of($baseName node)")
+        out.println("    {")
+        out.println("        if(node == null)")
+        out.println("        {")
+        out.println("            return null;")
+        out.println("        }")
+        types.forEach()
+        {
+            var className = className(it)
+            var binding = "${className.toLowerCase()}Node"
+            var arguments = (fields(it) + recordAnnotations(it)).map { field -> convert(field, binding) }
+            out.println()
+            out.println("        if(node instanceof $baseName.$className $binding)")
+            out.println("        {")
+            out.println("            return new $className(${arguments.joinToString(", ")});")
+            out.println("        }")
+        }
+        out.println()
+        out.println("        throw new IllegalArgumentException(\"Unknown $baseName: \" + node.getClass());")
+        out.println("    }")
+        out.println()
+        out.println("    static List<$nodeName> ofAll(List<$baseName> nodes)")
+        out.println("    {")
+        out.println("        List<$nodeName> converted = new ArrayList<>(nodes.size());")
+        out.println("        for($baseName node : nodes)")
+        out.println("        {")
+        out.println("            converted.add(of(node));")
+        out.println("        }")
+        out.println("        return converted;")
+        out.println("    }")
+        out.println("}")
+        out.close()
+    }
+}
+
+fun nodeType(field: String): String
+{
+    var (type, name) = field.split(" ")
+    var converted = when (type)
+    {
+        "Expr" -> "ExprNode"
+        "Statement" -> "StmtNode"
+        "List<Expr>" -> "List<ExprNode>"
+        "List<Statement>" -> "List<StmtNode>"
+        else -> type
+    }
+    return "$converted $name"
+}
+
+fun convert(field: String, binding: String): String
+{
+    var (type, name) = field.split(" ")
+    return when (type)
+    {
+        "Expr" -> "ExprNode.of($binding.$name)"
+        "Statement" -> "StmtNode.of($binding.$name)"
+        "List<Expr>" -> "ExprNode.ofAll($binding.$name)"
+        "List<Statement>" -> "StmtNode.ofAll($binding.$name)"
+        else -> "$binding.$name"
+    }
 }